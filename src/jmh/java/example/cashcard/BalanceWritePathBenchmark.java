@@ -0,0 +1,78 @@
+package example.cashcard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Viele parallele Aufladungen derselben Karte: Lesen, Ändern und Speichern mit Versionsprüfung (der alte Pfad aus
+// CashCardController.balance) gegen UPDATE amount = amount + ? auf die Kartenzeile gegen INSERT ins Journal.
+// Das UPDATE wartet auf die Zeilensperre der Karte, das INSERT nicht. Der Snapshot läuft im Hintergrund mit
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(8)
+@State(Scope.Benchmark)
+public class BalanceWritePathBenchmark {
+
+    private static final int ROWS = 1_000;
+    private static final long HOT_CARD = SeededApplication.id(0);
+    private static final String HOT_OWNER = SeededApplication.owner(0);
+
+    private ConfigurableApplicationContext context;
+    private ICashCardRepository cashCardRepository;
+    private BalanceJournal journal;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = SeededApplication.start(ROWS, "cashcard.balance.mode=JOURNAL",
+                "cashcard.balance.journal.snapshot-interval=200ms");
+        cashCardRepository = context.getBean(ICashCardRepository.class);
+        journal = context.getBean(BalanceJournal.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    // Konflikte werden über die Version erkannt und wiederholt
+    @Benchmark
+    public CashCard readModifyWrite() {
+        while (true) {
+            CashCard cashCard = cashCardRepository.findByIdAndOwner(HOT_CARD, HOT_OWNER).orElseThrow();
+            cashCard.balance(100);
+            try {
+                return cashCardRepository.save(cashCard);
+            } catch (OptimisticLockingFailureException e) {
+                // Zeile wurde parallel geändert, neu lesen
+            }
+        }
+    }
+
+    @Benchmark
+    public Optional<CashCard> rowUpdate() {
+        return cashCardRepository.balanceByIdAndOwner(HOT_CARD, HOT_OWNER, 100);
+    }
+
+    @Benchmark
+    public boolean journalAppend() {
+        return journal.append(HOT_CARD, HOT_OWNER, 100);
+    }
+}
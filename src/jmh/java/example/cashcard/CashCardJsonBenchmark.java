@@ -0,0 +1,75 @@
+package example.cashcard;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Jackson-Kosten für CashCard, einzeln und als Liste (wie bei GET /cashcards)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CashCardJsonBenchmark {
+
+    private static final TypeReference<List<CashCard>> LIST_TYPE = new TypeReference<>() {
+    };
+
+    @Param({"20"})
+    int listSize;
+
+    private ObjectMapper objectMapper;
+    private CashCard cashCard;
+    private String cashCardJson;
+    private List<CashCard> cashCards;
+    private String cashCardsJson;
+
+    @Setup
+    public void setup() throws Exception {
+        // Gleiche Konfiguration wie der ObjectMapper von Spring Boot
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        cashCard = new CashCard(99L, 12345, "owner1");
+        cashCardJson = objectMapper.writeValueAsString(cashCard);
+        cashCards = new ArrayList<>();
+        for (int i = 0; i < listSize; i++) {
+            cashCards.add(new CashCard(100L + i, i * 125L, "owner1"));
+        }
+        cashCardsJson = objectMapper.writeValueAsString(cashCards);
+    }
+
+    @Benchmark
+    public String serializeSingle() throws Exception {
+        return objectMapper.writeValueAsString(cashCard);
+    }
+
+    @Benchmark
+    public CashCard deserializeSingle() throws Exception {
+        return objectMapper.readValue(cashCardJson, CashCard.class);
+    }
+
+    @Benchmark
+    public String serializeList() throws Exception {
+        return objectMapper.writeValueAsString(cashCards);
+    }
+
+    @Benchmark
+    public List<CashCard> deserializeList() throws Exception {
+        return objectMapper.readValue(cashCardsJson, LIST_TYPE);
+    }
+}
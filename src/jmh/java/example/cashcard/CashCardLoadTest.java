@@ -0,0 +1,274 @@
+package example.cashcard;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.provisioning.UserDetailsManager;
+
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Lasttest über HTTP: startet die Anwendung im selben Prozess auf einem zufälligen Port, befüllt sie mit rows Karten
+// (SeededApplication) und lässt clients angemeldete Clients gleichzeitig eine gewichtete Mischung aus findById, findAll,
+// create und balance schicken (geschlossene Last, jeder Client hat seinen eigenen Owner mit CARDS_PER_OWNER Karten).
+// Der Bericht (JSON) enthält pro Endpunkt Durchsatz, p50/p99/p999 und Fehlerrate. Liegt eine Baseline vor, endet der
+// Lauf mit Exit-Code 1, wenn ein Endpunkt mehr als threshold an Durchsatz verliert, p99 um mehr als threshold steigt
+// oder die Fehlerrate steigt. Die Baseline gilt nur für die Maschine, auf der sie aufgenommen wurde.
+// mvn -Pbenchmark test-compile exec:exec@load-test -Dload.clients=64 -Dload.mix=findById=50,findAll=30,create=10,balance=10
+// Neue Baseline aufnehmen: -Dload.update-baseline=true
+public final class CashCardLoadTest {
+
+    private static final String PASSWORD = "load-test";
+    // Eine Fehlerrate unterhalb dieser Schwelle über der Baseline gilt noch als Rauschen
+    private static final double ERROR_RATE_TOLERANCE = 0.001;
+
+    private CashCardLoadTest() {
+    }
+
+    enum Endpoint {
+        FIND_BY_ID("findById", 200) {
+            @Override
+            HttpRequest.Builder request(URI base, Client client) {
+                return HttpRequest.newBuilder(base.resolve("/cashcards/" + client.randomCard())).GET();
+            }
+        },
+        FIND_ALL("findAll", 200) {
+            @Override
+            HttpRequest.Builder request(URI base, Client client) {
+                int page = ThreadLocalRandom.current().nextInt(SeededApplication.CARDS_PER_OWNER / 20);
+                return HttpRequest.newBuilder(base.resolve("/cashcards?size=20&page=" + page)).GET();
+            }
+        },
+        CREATE("create", 201) {
+            @Override
+            HttpRequest.Builder request(URI base, Client client) {
+                return HttpRequest.newBuilder(base.resolve("/cashcards"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"amount\": 10.00}"));
+            }
+        },
+        BALANCE("balance", 200) {
+            @Override
+            HttpRequest.Builder request(URI base, Client client) {
+                return HttpRequest.newBuilder(base.resolve("/cashcards/balance/" + client.randomCard()))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"amount\": 1.00}"));
+            }
+        };
+
+        private final String key;
+        private final int expectedStatus;
+
+        Endpoint(String key, int expectedStatus) {
+            this.key = key;
+            this.expectedStatus = expectedStatus;
+        }
+
+        abstract HttpRequest.Builder request(URI base, Client client);
+
+        static Endpoint of(String key) {
+            for (Endpoint endpoint : values()) {
+                if (endpoint.key.equals(key)) {
+                    return endpoint;
+                }
+            }
+            throw new IllegalArgumentException("Unknown endpoint " + key + ", expected findById, findAll, create or balance");
+        }
+    }
+
+    record Config(int clients, int rows, int warmupSeconds, int durationSeconds, Map<String, Integer> mix,
+                  double threshold) {
+
+        static Config fromSystemProperties() {
+            Map<String, Integer> mix = new LinkedHashMap<>();
+            for (String entry : System.getProperty("load.mix", "findById=60,findAll=20,create=10,balance=10").split(",")) {
+                String[] parts = entry.trim().split("=");
+                mix.put(Endpoint.of(parts[0].trim()).key, Integer.parseInt(parts[1].trim()));
+            }
+            return new Config(Integer.getInteger("load.clients", 32), Integer.getInteger("load.rows", 100_000),
+                    Integer.getInteger("load.warmup", 10), Integer.getInteger("load.duration", 30), mix,
+                    Double.parseDouble(System.getProperty("load.threshold", "0.2")));
+        }
+    }
+
+    record EndpointResult(long requests, long errors, double errorRate, double throughput,
+                          double p50Millis, double p99Millis, double p999Millis) {
+
+        static EndpointResult of(LatencyRecorder.Snapshot snapshot, Duration duration) {
+            return new EndpointResult(snapshot.requests(), snapshot.errors(), snapshot.errorRate(),
+                    snapshot.requests() / (duration.toNanos() / 1e9), snapshot.percentileMillis(0.50),
+                    snapshot.percentileMillis(0.99), snapshot.percentileMillis(0.999));
+        }
+    }
+
+    record Report(Config config, Map<String, EndpointResult> endpoints) {
+    }
+
+    // Ein Client meldet sich als eigener Owner an und arbeitet nur auf dessen Karten
+    record Client(String authorization, long firstCard) {
+
+        long randomCard() {
+            return firstCard + ThreadLocalRandom.current().nextInt(SeededApplication.CARDS_PER_OWNER);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path reportPath = Path.of(args[0]);
+        File baseline = args.length > 1 ? new File(args[1]) : null;
+        Config config = Config.fromSystemProperties();
+        ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+        Report report;
+        try (ConfigurableApplicationContext context = SeededApplication.start(WebApplicationType.SERVLET, config.rows(),
+                "server.port=0")) {
+            List<Client> clients = registerClients(context, config);
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            report = run(URI.create("http://localhost:" + port), clients, config);
+        }
+
+        System.out.printf("%n%-10s %10s %12s %10s %10s %10s %10s%n", "endpoint", "requests", "requests/s",
+                "p50 ms", "p99 ms", "p999 ms", "errors %");
+        report.endpoints().forEach((endpoint, result) -> System.out.printf("%-10s %10d %12.0f %10.2f %10.2f %10.2f %10.3f%n",
+                endpoint, result.requests(), result.throughput(), result.p50Millis(), result.p99Millis(),
+                result.p999Millis(), result.errorRate() * 100));
+        objectMapper.writeValue(reportPath.toFile(), report);
+        System.out.println("Report written to " + reportPath);
+
+        if (baseline == null) {
+            return;
+        }
+        if (Boolean.getBoolean("load.update-baseline")) {
+            objectMapper.writeValue(baseline, report);
+            System.out.println("Baseline written to " + baseline);
+            return;
+        }
+        if (!baseline.exists()) {
+            System.out.println("No baseline at " + baseline + ", nothing to compare");
+            return;
+        }
+        List<String> regressions = regressions(objectMapper.readValue(baseline, Report.class), report, config.threshold());
+        if (!regressions.isEmpty()) {
+            regressions.forEach(regression -> System.out.println("REGRESSION " + regression));
+            System.exit(1);
+        }
+        System.out.println("No regression against " + baseline);
+    }
+
+    static List<String> regressions(Report baseline, Report current, double threshold) {
+        List<String> regressions = new ArrayList<>();
+        baseline.endpoints().forEach((endpoint, before) -> {
+            EndpointResult after = current.endpoints().get(endpoint);
+            if (after == null) {
+                return;
+            }
+            if (after.throughput() < before.throughput() * (1 - threshold)) {
+                regressions.add(String.format("%s throughput %.0f/s < baseline %.0f/s", endpoint, after.throughput(), before.throughput()));
+            }
+            if (after.p99Millis() > before.p99Millis() * (1 + threshold)) {
+                regressions.add(String.format("%s p99 %.2f ms > baseline %.2f ms", endpoint, after.p99Millis(), before.p99Millis()));
+            }
+            if (after.errorRate() > before.errorRate() + ERROR_RATE_TOLERANCE) {
+                regressions.add(String.format("%s error rate %.3f%% > baseline %.3f%%", endpoint,
+                        after.errorRate() * 100, before.errorRate() * 100));
+            }
+        });
+        return regressions;
+    }
+
+    // Ein Owner pro Client, reihum über die befüllten Owner verteilt
+    private static List<Client> registerClients(ConfigurableApplicationContext context, Config config) {
+        UserDetailsManager users = context.getBean(UserDetailsManager.class);
+        String encoded = context.getBean(PasswordEncoder.class).encode(PASSWORD);
+        int owners = Math.min(config.clients(), SeededApplication.owners(config.rows()));
+        List<Client> clients = new ArrayList<>(config.clients());
+        for (int i = 0; i < config.clients(); i++) {
+            int owner = i % owners;
+            String username = SeededApplication.owner(owner);
+            if (i < owners) {
+                users.createUser(User.withUsername(username).password(encoded)
+                        .roles(UserRole.CARD_OWNER.toString()).build());
+            }
+            clients.add(new Client("Basic " + Base64.getEncoder().encodeToString(
+                    (username + ":" + PASSWORD).getBytes(StandardCharsets.UTF_8)),
+                    SeededApplication.id((long) owner * SeededApplication.CARDS_PER_OWNER)));
+        }
+        return clients;
+    }
+
+    private static Report run(URI base, List<Client> clients, Config config) throws InterruptedException {
+        Duration duration = Duration.ofSeconds(config.durationSeconds());
+        List<Endpoint> weighted = new ArrayList<>();
+        config.mix().forEach((key, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                weighted.add(Endpoint.of(key));
+            }
+        });
+        Map<Endpoint, LatencyRecorder> recorders = new EnumMap<>(Endpoint.class);
+        for (Endpoint endpoint : Endpoint.values()) {
+            recorders.put(endpoint, new LatencyRecorder());
+        }
+
+        ExecutorService completions = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        HttpClient httpClient = HttpClient.newBuilder().executor(completions).build();
+        long measureStart = System.nanoTime() + Duration.ofSeconds(config.warmupSeconds()).toNanos();
+        Driver driver = new Driver(base, httpClient, weighted, recorders, measureStart, measureStart + duration.toNanos(),
+                new CountDownLatch(clients.size()), completions);
+        clients.forEach(driver::next);
+        driver.done.await();
+        completions.shutdown();
+
+        Map<String, EndpointResult> endpoints = new LinkedHashMap<>();
+        for (Endpoint endpoint : Endpoint.values()) {
+            if (config.mix().containsKey(endpoint.key)) {
+                endpoints.put(endpoint.key, EndpointResult.of(recorders.get(endpoint).snapshot(), duration));
+            }
+        }
+        return new Report(config, endpoints);
+    }
+
+    // Geschlossene Last ohne Threads pro Client: Jeder Client schickt den nächsten Request, sobald die Antwort da ist.
+    // Gemessen werden nur Requests, die nach dem Warmup starten
+    private record Driver(URI base, HttpClient httpClient, List<Endpoint> weighted, Map<Endpoint, LatencyRecorder> recorders,
+                          long measureStart, long end, CountDownLatch done, ExecutorService completions) {
+
+        void next(Client client) {
+            long start = System.nanoTime();
+            if (start >= end) {
+                done.countDown();
+                return;
+            }
+            Endpoint endpoint = weighted.get(ThreadLocalRandom.current().nextInt(weighted.size()));
+            HttpRequest request = endpoint.request(base, client)
+                    .header("Authorization", client.authorization())
+                    .timeout(Duration.ofSeconds(60))
+                    .build();
+            httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenCompleteAsync((response, error) -> {
+                if (start >= measureStart) {
+                    recorders.get(endpoint).record(System.nanoTime() - start,
+                            error == null && response.statusCode() == endpoint.expectedStatus);
+                }
+                next(client);
+            }, completions);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package example.cashcard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Repository-Zugriffe gegen eine H2-Datenbank mit rows Karten (z.B. -p rows=10000,1000000,10000000).
+// Der Karten-Cache ist abgeschaltet, gemessen wird der Weg zur Datenbank
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class CashCardRepositoryBenchmark {
+
+    private static final int PAGE_SIZE = 20;
+    private static final PageRequest FIRST_PAGE = PageRequest.of(0, PAGE_SIZE,
+            Sort.by(Sort.Direction.ASC, "amount").and(Sort.by(Sort.Direction.ASC, "id")));
+    // Letzte Seite eines Owners
+    private static final int DEEP_PAGE = SeededApplication.CARDS_PER_OWNER / PAGE_SIZE - 1;
+
+    @Param({"10000"})
+    int rows;
+
+    private ConfigurableApplicationContext context;
+    private ICashCardRepository cashCardRepository;
+    // Pro Owner (amount, id) der letzten Karte vor DEEP_PAGE, damit der Cursor dieselbe Seite liefert wie OFFSET
+    private long[] deepCursorAmounts;
+    private long[] deepCursorIds;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = SeededApplication.start(rows, "cashcard.cache.enabled=false");
+        cashCardRepository = context.getBean(ICashCardRepository.class);
+        int owners = SeededApplication.owners(rows);
+        deepCursorAmounts = new long[owners];
+        deepCursorIds = new long[owners];
+        for (int owner = 0; owner < owners; owner++) {
+            List<CashCard> previousPage = cashCardRepository.findByOwner(SeededApplication.owner(owner),
+                    PageRequest.of(DEEP_PAGE - 1, PAGE_SIZE, FIRST_PAGE.getSort()));
+            CashCard last = previousPage.get(previousPage.size() - 1);
+            deepCursorAmounts[owner] = last.getAmount();
+            deepCursorIds[owner] = last.getId();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Optional<CashCard> findByIdAndOwner() {
+        int index = ThreadLocalRandom.current().nextInt(rows);
+        return cashCardRepository.findByIdAndOwner(SeededApplication.id(index), SeededApplication.owner(index / SeededApplication.CARDS_PER_OWNER));
+    }
+
+    @Benchmark
+    public List<CashCard> findByOwner() {
+        return cashCardRepository.findByOwner(randomOwner(), FIRST_PAGE);
+    }
+
+    // Letzte Seite eines Owners: mit OFFSET muss H2 alle vorherigen Einträge überspringen
+    @Benchmark
+    public List<CashCard> findByOwnerDeepOffset() {
+        return cashCardRepository.findByOwner(SeededApplication.owner(randomOwnerIndex()),
+                PageRequest.of(DEEP_PAGE, PAGE_SIZE, FIRST_PAGE.getSort()));
+    }
+
+    // Dieselbe Seite über den Keyset-Cursor, ab der letzten Karte der vorherigen Seite
+    @Benchmark
+    public List<CashCard> findByOwnerDeepCursor() {
+        int owner = randomOwnerIndex();
+        return cashCardRepository.findByOwnerAfter(SeededApplication.owner(owner),
+                deepCursorAmounts[owner], deepCursorIds[owner], PAGE_SIZE);
+    }
+
+    // Der ursprüngliche Weg von CashCardController.balance: lesen, im Speicher ändern, speichern
+    @Benchmark
+    public CashCard balanceReadModifyWrite() {
+        int index = ThreadLocalRandom.current().nextInt(rows);
+        long id = SeededApplication.id(index);
+        String owner = SeededApplication.owner(index / SeededApplication.CARDS_PER_OWNER);
+        while (true) {
+            CashCard cashCard = cashCardRepository.findByIdAndOwner(id, owner).orElseThrow();
+            cashCard.balance(100);
+            try {
+                return cashCardRepository.save(cashCard);
+            } catch (OptimisticLockingFailureException e) {
+                // Parallel geändert, neu lesen
+            }
+        }
+    }
+
+    @Benchmark
+    public Optional<CashCard> balanceAtomic() {
+        int index = ThreadLocalRandom.current().nextInt(rows);
+        return cashCardRepository.balanceByIdAndOwner(SeededApplication.id(index),
+                SeededApplication.owner(index / SeededApplication.CARDS_PER_OWNER), 100);
+    }
+
+    private String randomOwner() {
+        return SeededApplication.owner(randomOwnerIndex());
+    }
+
+    private int randomOwnerIndex() {
+        return ThreadLocalRandom.current().nextInt(SeededApplication.owners(rows));
+    }
+}
@@ -0,0 +1,71 @@
+package example.cashcard;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+
+import java.util.concurrent.TimeUnit;
+
+// Zusatzkosten der Instrumentierung pro Request. Konfiguration wie in application.properties:
+// Prometheus-Registry mit Histogramm-Buckets
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InstrumentationOverheadBenchmark {
+
+    private Timer timer;
+    private HandlerTimingInterceptor interceptor;
+    private HandlerMethod handler;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setup() throws Exception {
+        PrometheusMeterRegistry meterRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        timer = Timer.builder("spring.data.repository.invocations")
+                .tag("repository", "ICashCardRepository")
+                .tag("method", "findByIdAndOwner")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        interceptor = new HandlerTimingInterceptor(meterRegistry);
+        handler = new HandlerMethod(this, InstrumentationOverheadBenchmark.class.getMethod("setup"));
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+    }
+
+    // Ein Timer.record wie bei Repository- und Authentifizierungs-Timern
+    @Benchmark
+    public void timerRecord() {
+        timer.record(123_456, TimeUnit.NANOSECONDS);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void timerRecordContended() {
+        timer.record(123_456, TimeUnit.NANOSECONDS);
+    }
+
+    // preHandle + afterCompletion des HandlerTimingInterceptor pro Request
+    @Benchmark
+    public void handlerInterceptor() {
+        interceptor.preHandle(request, response, handler);
+        interceptor.afterCompletion(request, response, handler, null);
+    }
+}
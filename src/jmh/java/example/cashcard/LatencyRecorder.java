@@ -0,0 +1,49 @@
+package example.cashcard;
+
+import java.util.Arrays;
+
+// Sammelt die Latenzen erfolgreicher Requests und zählt Fehler, für die Lasttests (ThreadingLoadComparison, CashCardLoadTest).
+// Alle Werte werden behalten und für die Perzentile sortiert, bei einigen Millionen Requests sind das nur einige MB
+final class LatencyRecorder {
+
+    private long[] latencies = new long[1 << 16];
+    private int size;
+    private long errors;
+
+    synchronized void record(long nanos, boolean success) {
+        if (!success) {
+            errors++;
+            return;
+        }
+        if (size == latencies.length) {
+            latencies = Arrays.copyOf(latencies, size * 2);
+        }
+        latencies[size++] = nanos;
+    }
+
+    synchronized Snapshot snapshot() {
+        long[] sorted = Arrays.copyOf(latencies, size);
+        Arrays.sort(sorted);
+        return new Snapshot(sorted, errors);
+    }
+
+    record Snapshot(long[] sorted, long errors) {
+
+        long requests() {
+            return sorted.length;
+        }
+
+        double errorRate() {
+            long all = sorted.length + errors;
+            return all == 0 ? 0 : (double) errors / all;
+        }
+
+        // Nearest-Rank, in Millisekunden
+        double percentileMillis(double quantile) {
+            if (sorted.length == 0) {
+                return Double.NaN;
+            }
+            return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)] / 1e6;
+        }
+    }
+}
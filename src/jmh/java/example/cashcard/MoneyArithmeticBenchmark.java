@@ -0,0 +1,50 @@
+package example.cashcard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+// Aufladen im Speicher: long in Cent gegen die exakte Alternative BigDecimal.
+// Mit -prof gc zeigt gc.alloc.rate.norm, dass CashCard.balance(long) keine Objekte erzeugt,
+// z.B. -Djmh.args="MoneyArithmeticBenchmark -prof gc"
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoneyArithmeticBenchmark {
+
+    private static final BigDecimal TOP_UP = new BigDecimal("0.10");
+
+    private CashCard cashCard;
+    private BigDecimal decimalAmount;
+
+    @Setup
+    public void setup() {
+        cashCard = new CashCard(99L, 0, "owner1");
+        decimalAmount = BigDecimal.ZERO;
+    }
+
+    @Benchmark
+    public long balanceCents() {
+        cashCard.balance(10);
+        return cashCard.getAmount();
+    }
+
+    @Benchmark
+    public BigDecimal balanceBigDecimal() {
+        decimalAmount = decimalAmount.add(TOP_UP);
+        return decimalAmount;
+    }
+}
@@ -0,0 +1,88 @@
+package example.cashcard;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Kosten der Anmeldung pro Request: BCrypt wie in SecurityConfig, der Credential-Cache und das signierte Token
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PasswordVerificationBenchmark {
+
+    private static final String USERNAME = "owner1";
+    private static final String PASSWORD = "12345";
+
+    private PasswordEncoder passwordEncoder;
+    private String encodedPassword;
+    private DaoAuthenticationProvider daoAuthenticationProvider;
+    private CachingAuthenticationProvider cachingAuthenticationProvider;
+    private SignedTokenService tokenService;
+    private String token;
+
+    @Setup
+    public void setup() {
+        // Dieselbe Konfiguration wie SecurityConfig.passwordEncoder()
+        passwordEncoder = new BCryptPasswordEncoder();
+        encodedPassword = passwordEncoder.encode(PASSWORD);
+        InMemoryUserDetailsManager users = new InMemoryUserDetailsManager(User.builder()
+                .username(USERNAME)
+                .password(encodedPassword)
+                .roles(UserRole.CARD_OWNER.toString())
+                .build());
+        daoAuthenticationProvider = new DaoAuthenticationProvider(users);
+        daoAuthenticationProvider.setPasswordEncoder(passwordEncoder);
+        cachingAuthenticationProvider = new CachingAuthenticationProvider(daoAuthenticationProvider,
+                new CashCardSecurityProperties.AuthCache(true, Duration.ofMinutes(5), 10_000), new SimpleMeterRegistry());
+        tokenService = new SignedTokenService(new CashCardSecurityProperties.Token(true, Duration.ofMinutes(15), null),
+                Clock.systemUTC());
+        token = tokenService.issue(cachingAuthenticationProvider.authenticate(credentials()));
+    }
+
+    @Benchmark
+    public boolean bcryptMatches() {
+        return passwordEncoder.matches(PASSWORD, encodedPassword);
+    }
+
+    @Benchmark
+    public Authentication daoAuthenticationProvider() {
+        return daoAuthenticationProvider.authenticate(credentials());
+    }
+
+    @Benchmark
+    public Authentication cachingAuthenticationProvider() {
+        return cachingAuthenticationProvider.authenticate(credentials());
+    }
+
+    @Benchmark
+    public Optional<Authentication> signedToken() {
+        return tokenService.verify(token);
+    }
+
+    private static Authentication credentials() {
+        return UsernamePasswordAuthenticationToken.unauthenticated(USERNAME, PASSWORD);
+    }
+}
@@ -0,0 +1,68 @@
+package example.cashcard;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Kosten der Drosselung pro Request: Regel finden, Bucket des Users per CAS belasten, Admission zählen.
+// Die Limits sind so hoch, dass nie abgelehnt wird. hotPrincipal: alle Threads auf demselben Bucket (CAS-Konflikte),
+// manyPrincipals: 10.000 User wie bei vielen gleichzeitigen Clients
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RateLimiterBenchmark {
+
+    private static final int PRINCIPALS = 10_000;
+
+    private PrincipalRateLimiter rateLimiter;
+    private String[] principals;
+
+    @Setup
+    public void setup() {
+        CashCardRateLimitProperties properties = new CashCardRateLimitProperties(true, 1_000_000, 1_000_000,
+                List.of(new CashCardRateLimitProperties.Rule("POST", "/cashcards/balance/**", null, 1_000_000, 1_000_000),
+                        new CashCardRateLimitProperties.Rule(null, null, UserRole.NON_CARD_OWNER, 1_000_000, 1_000_000)),
+                Duration.ofMinutes(5), new CashCardRateLimitProperties.Admission(true, Integer.MAX_VALUE, Duration.ofSeconds(1)));
+        rateLimiter = new PrincipalRateLimiter(properties, new SimpleMeterRegistry());
+        principals = new String[PRINCIPALS];
+        for (int i = 0; i < PRINCIPALS; i++) {
+            principals[i] = SeededApplication.owner(i);
+        }
+    }
+
+    @Benchmark
+    public long hotPrincipal() {
+        return rateLimiter.tryAcquire("owner1", UserRole.CARD_OWNER, "GET", "/cashcards/99");
+    }
+
+    @Benchmark
+    public long manyPrincipals() {
+        String principal = principals[ThreadLocalRandom.current().nextInt(PRINCIPALS)];
+        return rateLimiter.tryAcquire(principal, UserRole.CARD_OWNER, "POST", "/cashcards/balance/99");
+    }
+
+    @Benchmark
+    public boolean admission() {
+        boolean admitted = rateLimiter.tryAdmit();
+        rateLimiter.release();
+        return admitted;
+    }
+}
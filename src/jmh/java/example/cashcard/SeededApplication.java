@@ -0,0 +1,68 @@
+package example.cashcard;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Startet die Anwendung ohne Webserver auf einer eigenen H2-Datenbank und befüllt sie mit rows Karten.
+// Jeder Owner ("bench-owner-<n>") besitzt CARDS_PER_OWNER Karten, die ids beginnen bei FIRST_ID.
+// Die Owner-Summen werden mit befüllt, neu angelegte Karten bekommen ids nach den befüllten
+final class SeededApplication {
+
+    static final int CARDS_PER_OWNER = 100;
+    static final long FIRST_ID = 1_000L;
+    private static final int INSERT_BATCH_SIZE = 10_000;
+
+    private SeededApplication() {
+    }
+
+    static ConfigurableApplicationContext start(int rows, String... properties) {
+        return start(WebApplicationType.NONE, rows, properties);
+    }
+
+    static ConfigurableApplicationContext start(WebApplicationType webApplicationType, int rows, String... properties) {
+        // Ohne spring.datasource.url legt Spring Boot pro Kontext eine eigene eingebettete H2-Datenbank an.
+        // Als Kommandozeilenargumente, damit sie Vorrang vor application.properties haben
+        List<String> args = new ArrayList<>(List.of("--logging.level.root=WARN"));
+        for (String property : properties) {
+            args.add("--" + property);
+        }
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(CashCardApplication.class)
+                .web(webApplicationType)
+                .run(args.toArray(String[]::new));
+        seed(context.getBean(JdbcTemplate.class), rows);
+        return context;
+    }
+
+    static String owner(long index) {
+        return "bench-owner-" + index;
+    }
+
+    static int owners(int rows) {
+        return Math.max(1, rows / CARDS_PER_OWNER);
+    }
+
+    // Die Karte i gehört owner(i / CARDS_PER_OWNER)
+    static long id(long index) {
+        return FIRST_ID + index;
+    }
+
+    private static void seed(JdbcTemplate jdbcTemplate, int rows) {
+        List<Object[]> batch = new ArrayList<>(INSERT_BATCH_SIZE);
+        for (int i = 0; i < rows; i++) {
+            batch.add(new Object[]{id(i), (long) (i % 10_000), owner(i / CARDS_PER_OWNER)});
+            if (batch.size() == INSERT_BATCH_SIZE || i == rows - 1) {
+                jdbcTemplate.batchUpdate("INSERT INTO cash_card (ID, AMOUNT, OWNER) VALUES (?, ?, ?)", batch);
+                batch.clear();
+            }
+        }
+        jdbcTemplate.update("""
+                INSERT INTO cash_card_owner_summary (OWNER, TOTAL_AMOUNT, CARD_COUNT)
+                SELECT OWNER, SUM(AMOUNT), COUNT(*) FROM cash_card WHERE OWNER LIKE 'bench-owner-%' GROUP BY OWNER""");
+        jdbcTemplate.execute("ALTER TABLE cash_card ALTER COLUMN ID RESTART WITH " + id(rows));
+    }
+}
@@ -0,0 +1,87 @@
+package example.cashcard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Schreibdurchsatz (neue Karten samt Owner-Summe) mit 1, 2 und 4 Shards auf je einer eigenen H2-Datenbank.
+// Jeder Thread schreibt reihum für OWNERS_PER_THREAD eigene Owner, die sich über den Hash-Ring auf die Shards verteilen.
+// Skaliert nur, solange die Datenbanken und nicht die CPUs der Engpass sind: Alle Shards laufen hier im selben Prozess
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(8)
+@State(Scope.Benchmark)
+public class ShardScalingBenchmark {
+
+    private static final int OWNERS_PER_THREAD = 64;
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    @Param({"1", "2", "4"})
+    int shards;
+
+    private ConfigurableApplicationContext context;
+    private CashCardService cashCardService;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        List<String> properties = new ArrayList<>(List.of("cashcard.cache.enabled=false"));
+        // Shard 0 ist die eingebettete Datenbank aus spring.datasource
+        for (int node = 0; node < shards - 1; node++) {
+            properties.add("cashcard.database.shards.nodes[" + node + "].url=jdbc:h2:mem:bench-shard-"
+                    + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+            properties.add("cashcard.database.shards.nodes[" + node + "].username=sa");
+        }
+        context = SeededApplication.start(0, properties.toArray(String[]::new));
+        cashCardService = context.getBean(CashCardService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Owners {
+        private final List<String> owners = new ArrayList<>();
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            int thread = THREADS.getAndIncrement();
+            for (int i = 0; i < OWNERS_PER_THREAD; i++) {
+                owners.add("scale-owner-" + thread + "-" + i);
+            }
+        }
+
+        String next() {
+            next = (next + 1) % owners.size();
+            return owners.get(next);
+        }
+    }
+
+    @Benchmark
+    public CashCard create(Owners owners) {
+        return cashCardService.create(new CashCard(null, 100, null), owners.next());
+    }
+}
@@ -0,0 +1,213 @@
+package example.cashcard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Lastvergleich GET /cashcards/{id} mit Plattform-Threads (Tomcat-Pool) und virtuellen Threads bei 100, 1000 und
+// 10000 gleichzeitigen Clients. Der Server läuft in einer eigenen JVM (gleiche JVM und gleicher Classpath wie dieser
+// Prozess), damit Server und Clients sich die Dateideskriptoren für 10000 Verbindungen nicht teilen müssen.
+// Der Karten-Cache ist aus, jeder Request geht zur Datenbank. Jeder Client schickt den nächsten Request, sobald
+// die Antwort da ist (geschlossene Last). Die Clients brauchen keine Threads: HttpClient.sendAsync.
+// Virtuelle Threads brauchen Java 21, also mit einem JDK 21 starten:
+// mvn -Pbenchmark test-compile exec:exec@threading-load -Dthreading.args="100 1000 10000"
+// Warmup und Messdauer in Sekunden: -Dthreading.warmup=5 -Dthreading.duration=15 (über MAVEN_OPTS bzw. JAVA_TOOL_OPTIONS)
+public final class ThreadingLoadComparison {
+
+    private static final int SEEDED_CARDS = 1_000;
+    private static final String AUTHORIZATION = "Basic " + Base64.getEncoder()
+            .encodeToString("owner1:12345".getBytes(StandardCharsets.UTF_8));
+
+    private ThreadingLoadComparison() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path output = Path.of(args[0]);
+        int[] clientCounts = Arrays.stream(args).skip(1).mapToInt(Integer::parseInt).toArray();
+        Duration warmup = Duration.ofSeconds(Integer.getInteger("threading.warmup", 5));
+        Duration duration = Duration.ofSeconds(Integer.getInteger("threading.duration", 15));
+
+        List<Result> results = new ArrayList<>();
+        for (boolean virtualThreads : new boolean[]{false, true}) {
+            try (Server server = Server.start(virtualThreads)) {
+                List<Long> ids = seed(server);
+                for (int clients : clientCounts) {
+                    Result result = drive(server, virtualThreads, ids, clients, warmup, duration);
+                    System.out.println(result);
+                    results.add(result);
+                }
+            }
+        }
+
+        System.out.printf("%n%-9s %8s %12s %10s %10s %8s%n", "threads", "clients", "requests/s", "p50 ms", "p99 ms", "errors");
+        for (Result result : results) {
+            System.out.printf("%-9s %8d %12.0f %10.2f %10.2f %8d%n", result.threads(), result.clients(),
+                    result.throughput(), result.p50Millis(), result.p99Millis(), result.errors());
+        }
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(output.toFile(), results);
+        System.out.println("Results written to " + output);
+    }
+
+    private static List<Long> seed(Server server) throws IOException, InterruptedException {
+        List<String> cards = new ArrayList<>();
+        for (int i = 0; i < SEEDED_CARDS; i++) {
+            cards.add("{\"amount\": " + i + ".00}");
+        }
+        HttpResponse<String> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder(server.uri("/cashcards/batch"))
+                        .header("Authorization", AUTHORIZATION)
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString("[" + String.join(",", cards) + "]"))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        List<Long> ids = new ArrayList<>();
+        for (JsonNode item : new ObjectMapper().readTree(response.body())) {
+            ids.add(item.path("cashCard").path("id").asLong());
+        }
+        return ids;
+    }
+
+    private static Result drive(Server server, boolean virtualThreads, List<Long> ids, int clients,
+                                Duration warmup, Duration duration) throws InterruptedException {
+        ExecutorService completions = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(60))
+                .executor(completions)
+                .build();
+        long measureStart = System.nanoTime() + warmup.toNanos();
+        long end = measureStart + duration.toNanos();
+        LatencyRecorder recorder = new LatencyRecorder();
+        CountDownLatch done = new CountDownLatch(clients);
+        for (int i = 0; i < clients; i++) {
+            next(client, server, ids, recorder, measureStart, end, done, completions);
+        }
+        done.await();
+        completions.shutdown();
+        // Ab Java 21 schließt close() die Verbindungen sofort, statt sie dem Keep-Alive-Timeout des Servers zu überlassen
+        if (client instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        LatencyRecorder.Snapshot snapshot = recorder.snapshot();
+        return new Result(virtualThreads ? "virtual" : "platform", clients, snapshot.requests(), snapshot.errors(),
+                snapshot.requests() / (duration.toNanos() / 1e9), snapshot.percentileMillis(0.50),
+                snapshot.percentileMillis(0.99));
+    }
+
+    private static void next(HttpClient client, Server server, List<Long> ids, LatencyRecorder recorder,
+                             long measureStart, long end, CountDownLatch done, ExecutorService completions) {
+        long start = System.nanoTime();
+        if (start >= end) {
+            done.countDown();
+            return;
+        }
+        long id = ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+        HttpRequest request = HttpRequest.newBuilder(server.uri("/cashcards/" + id))
+                .header("Authorization", AUTHORIZATION)
+                .timeout(Duration.ofSeconds(120))
+                .build();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenCompleteAsync((response, error) -> {
+            if (start >= measureStart) {
+                recorder.record(System.nanoTime() - start, error == null && response.statusCode() == 200);
+            }
+            next(client, server, ids, recorder, measureStart, end, done, completions);
+        }, completions);
+    }
+
+    public record Result(String threads, int clients, long requests, long errors, double throughput,
+                         double p50Millis, double p99Millis) {
+    }
+
+    // Die Anwendung als Kindprozess auf einem freien Port
+    private static final class Server implements AutoCloseable {
+        private final Process process;
+        private final int port;
+
+        private Server(Process process, int port) {
+            this.process = process;
+            this.port = port;
+        }
+
+        static Server start(boolean virtualThreads) throws IOException, InterruptedException {
+            int port;
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            Map<String, String> properties = new LinkedHashMap<>();
+            properties.put("server.port", String.valueOf(port));
+            properties.put("spring.threads.virtual.enabled", String.valueOf(virtualThreads));
+            properties.put("cashcard.cache.enabled", "false");
+            // Alle Clients sind owner1, die Drosselung pro User würde den Vergleich bestimmen
+            properties.put("cashcard.rate-limit.enabled", "false");
+            // Gleiche Verbindungsgrenzen in beiden Modi, verglichen wird nur die Ausführung der Requests
+            properties.put("server.tomcat.max-connections", "20000");
+            properties.put("server.tomcat.accept-count", "10000");
+            properties.put("server.tomcat.max-keep-alive-requests", "-1");
+            properties.put("logging.level.root", "WARN");
+            List<String> command = new ArrayList<>(List.of(
+                    ProcessHandle.current().info().command().orElse("java"), "-Xmx1g",
+                    "-cp", System.getProperty("java.class.path"), CashCardApplication.class.getName()));
+            properties.forEach((key, value) -> command.add("--" + key + "=" + value));
+            Server server = new Server(new ProcessBuilder(command).inheritIO().start(), port);
+            server.awaitHealthy();
+            return server;
+        }
+
+        URI uri(String path) {
+            return URI.create("http://localhost:" + port + path);
+        }
+
+        private void awaitHealthy() throws InterruptedException {
+            HttpClient client = HttpClient.newHttpClient();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(120);
+            while (System.nanoTime() < deadline) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("Server exited with " + process.exitValue());
+                }
+                try {
+                    if (client.send(HttpRequest.newBuilder(uri("/actuator/health")).build(),
+                            HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        return;
+                    }
+                } catch (IOException e) {
+                    // Noch nicht gestartet
+                }
+                Thread.sleep(250);
+            }
+            throw new UncheckedIOException(new IOException("Server did not become healthy on port " + port));
+        }
+
+        @Override
+        public void close() throws InterruptedException {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+}
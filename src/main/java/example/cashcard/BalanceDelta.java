@@ -0,0 +1,5 @@
+package example.cashcard;
+
+// Gesammelte Aufladungen einer Karte, die der WriteBehindBalanceAccumulator in einem Flush schreibt. amount in Cent
+public record BalanceDelta(long id, String owner, long amount) {
+}
@@ -0,0 +1,164 @@
+package example.cashcard;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Journal-Modus für Aufladungen (cashcard.balance.mode=JOURNAL).
+// Eine Aufladung ist ein INSERT in cash_card_transaction statt eines UPDATE auf cash_card. Parallele Aufladungen
+// derselben Karte warten so nicht auf die Zeilensperre der Karte, und jede Aufladung bleibt als Verlauf erhalten.
+// Der Kontostand ist der Snapshot in cash_card.AMOUNT plus die noch offenen Journal-Einträge.
+// Ein Hintergrund-Thread übernimmt offene Einträge regelmäßig in den Snapshot (beim Start zuerst alle: Replay)
+// und löscht übernommene Einträge nach Ablauf der retention (Kompaktierung)
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "cashcard.balance.mode", havingValue = "JOURNAL")
+public class BalanceJournal implements SmartLifecycle {
+
+    static final String SNAPSHOT_TIMER = "cashcard.balance.snapshot";
+
+    private final CashCardJdbcRepository jdbcRepository;
+    private final CashCardCache cashCardCache;
+    private final TransactionTemplate transactionTemplate;
+    private final OwnerShardRouter shardRouter;
+    private final CashCardBalanceProperties.Journal properties;
+    private final Clock clock;
+    private final Timer snapshotTimer;
+    private volatile ScheduledExecutorService scheduler;
+    private volatile boolean running;
+
+    public BalanceJournal(CashCardJdbcRepository jdbcRepository, CashCardCache cashCardCache,
+                          TransactionTemplate transactionTemplate, OwnerShardRouter shardRouter,
+                          CashCardBalanceProperties properties, MeterRegistry meterRegistry) {
+        this.jdbcRepository = jdbcRepository;
+        this.cashCardCache = cashCardCache;
+        this.transactionTemplate = transactionTemplate;
+        this.shardRouter = shardRouter;
+        this.properties = properties.journal();
+        this.clock = Clock.systemUTC();
+        this.snapshotTimer = Timer.builder(SNAPSHOT_TIMER)
+                .description("Time to fold open journal entries into cash_card")
+                .register(meterRegistry);
+    }
+
+    // false, wenn die Karte nicht existiert oder einem anderen Owner gehört
+    public boolean append(long id, String owner, long amount) {
+        boolean appended = jdbcRepository.appendTransaction(id, owner, amount) > 0;
+        if (appended) {
+            cashCardCache.evict(id, owner);
+        }
+        return appended;
+    }
+
+    // Läuft in der Transaktion des Aufrufers. Der Cache wird erst nach dem Commit geleert
+    public int[] appendAll(String owner, List<BalanceOperation> operations) {
+        int[] counts = jdbcRepository.appendTransactions(owner, operations);
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                cashCardCache.evict(operations.get(i).id(), owner);
+            }
+        }
+        return counts;
+    }
+
+    public Optional<CashCard> findByIdAndOwner(long id, String owner) {
+        return jdbcRepository.findWithJournalByIdAndOwner(id, owner);
+    }
+
+    public List<CashCard> findAllByIdInAndOwner(Collection<Long> ids, String owner) {
+        return jdbcRepository.findAllWithJournalByIdInAndOwner(ids, owner);
+    }
+
+    // Übernimmt alle offenen Einträge in Transaktionen zu je snapshotBatchSize Einträgen, Shard für Shard.
+    // Gegen Snapshots anderer Instanzen schützen die Zeilensperren in snapshotTransactions. synchronized verhindert nur,
+    // dass zwei Snapshots dieser Instanz gegenseitig auf ihre Sperren warten.
+    // Karten, deren Snapshot überlaufen würde, werden für den Rest des Durchlaufs ausgelassen und im Log gemeldet
+    public synchronized int snapshot() {
+        return snapshotTimer.record(() -> {
+            int[] total = new int[1];
+            shardRouter.forEachShard(shard -> {
+                Set<Long> skippedCards = new HashSet<>();
+                int folded;
+                int skipped;
+                do {
+                    skipped = skippedCards.size();
+                    folded = transactionTemplate.execute(status ->
+                            jdbcRepository.snapshotTransactions(properties.snapshotBatchSize(), skippedCards));
+                    total[0] += folded;
+                } while (folded == properties.snapshotBatchSize() || skippedCards.size() > skipped);
+                if (!skippedCards.isEmpty()) {
+                    log.warn("Journal entries of cash cards {} on shard {} left open, their amount would overflow",
+                            skippedCards, shard);
+                }
+            });
+            return total[0];
+        });
+    }
+
+    public int compact() {
+        int[] deleted = new int[1];
+        shardRouter.forEachShard(shard -> deleted[0] +=
+                jdbcRepository.deleteSnapshottedTransactionsBefore(clock.instant().minus(properties.retention())));
+        return deleted[0];
+    }
+
+    @Override
+    public void start() {
+        // Replay: Einträge, die vor dem letzten Herunterfahren nicht mehr übernommen wurden
+        int replayed = snapshot();
+        if (replayed > 0) {
+            log.info("Replayed {} journal entries into cash card snapshots", replayed);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cashcard-balance-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long snapshotInterval = properties.snapshotInterval().toNanos();
+        long compactionInterval = properties.compactionInterval().toNanos();
+        scheduler.scheduleWithFixedDelay(() -> runQuietly("snapshot", this::snapshot),
+                snapshotInterval, snapshotInterval, TimeUnit.NANOSECONDS);
+        scheduler.scheduleWithFixedDelay(() -> runQuietly("compaction", this::compact),
+                compactionInterval, compactionInterval, TimeUnit.NANOSECONDS);
+        running = true;
+    }
+
+    // Offene Einträge sind bereits dauerhaft gespeichert, beim Herunterfahren muss nichts geleert werden
+    @Override
+    public void stop() {
+        running = false;
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private static void runQuietly(String task, Runnable action) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            log.error("Journal {} failed", task, e);
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package example.cashcard;
+
+// Eine Aufladung aus POST /cashcards/balance/batch. Die Felder sind nullable, damit fehlende Werte
+// pro Eintrag als 400 gemeldet werden können statt den ganzen Request abzulehnen. amount in Cent, in JSON als Dezimalzahl
+public record BalanceOperation(Long id, @MoneyAmount Long amount) {
+}
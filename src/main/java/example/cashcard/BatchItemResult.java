@@ -0,0 +1,17 @@
+package example.cashcard;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// Ergebnis einer einzelnen Operation aus einem Batch-Request. index verweist auf die Position im Request,
+// status ist der HTTP-Status, den die Operation als Einzel-Request erhalten hätte
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BatchItemResult(int index, int status, CashCard cashCard, String error) {
+
+    public static BatchItemResult success(int index, int status, CashCard cashCard) {
+        return new BatchItemResult(index, status, cashCard, null);
+    }
+
+    public static BatchItemResult failure(int index, int status, String error) {
+        return new BatchItemResult(index, status, null, error);
+    }
+}
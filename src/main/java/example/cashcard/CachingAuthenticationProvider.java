@@ -0,0 +1,159 @@
+package example.cashcard;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Legt sich vor einen anderen AuthenticationProvider (DaoAuthenticationProvider mit BCrypt) und merkt sich
+// erfolgreiche Anmeldungen für eine begrenzte Zeit. Wiederholte Requests mit denselben Credentials sparen so den BCrypt-Hash.
+// Der Cache-Schlüssel ist ein HMAC über Username und Passwort mit einem zufälligen Schlüssel pro Prozess,
+// das Klartext-Passwort wird also nie gespeichert. Fehlgeschlagene Anmeldungen werden nicht gecacht.
+// Eine Anmeldung, während der sich die Credentials des Users ändern, wird nicht gecacht: invalidate erhöht die
+// Generation des Users, die vor dem Delegieren gelesen und nach dem put erneut geprüft wird.
+// Die Dauer jeder Anmeldung landet im Timer cashcard.authentication (method=basic-cached oder basic-bcrypt)
+public class CachingAuthenticationProvider implements AuthenticationProvider {
+
+    static final String AUTHENTICATION_TIMER = "cashcard.authentication";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final AuthenticationProvider delegate;
+    private final boolean enabled;
+    private final Cache<String, Authentication> cache;
+    // Anzahl der Invalidierungen pro User, nur User, deren Credentials sich seit dem Start geändert haben
+    private final Map<String, Long> generations = new ConcurrentHashMap<>();
+    private final SecretKey digestKey;
+    private final Timer cachedTimer;
+    private final Timer delegateSuccessTimer;
+    private final Timer delegateFailureTimer;
+
+    public CachingAuthenticationProvider(AuthenticationProvider delegate, CashCardSecurityProperties.AuthCache properties,
+                                         MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.enabled = properties.enabled();
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(properties.ttl())
+                .maximumSize(properties.maxSize())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "credentials");
+        // Timer einmal anlegen statt bei jedem Request über die Registry nachzuschlagen
+        this.cachedTimer = authenticationTimer(meterRegistry, "basic-cached", "success");
+        this.delegateSuccessTimer = authenticationTimer(meterRegistry, "basic-bcrypt", "success");
+        this.delegateFailureTimer = authenticationTimer(meterRegistry, "basic-bcrypt", "failure");
+        try {
+            this.digestKey = KeyGenerator.getInstance(HMAC_ALGORITHM).generateKey();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(HMAC_ALGORITHM + " not available", e);
+        }
+    }
+
+    static Timer authenticationTimer(MeterRegistry meterRegistry, String method, String outcome) {
+        return Timer.builder(AUTHENTICATION_TIMER)
+                .description("Time spent authenticating a request")
+                .tag("method", method)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        long start = System.nanoTime();
+        if (!enabled || !(authentication.getCredentials() instanceof String password)) {
+            return authenticateWithDelegate(authentication, null, start);
+        }
+        String key = digest(authentication.getName(), password);
+        Authentication cached = cache.getIfPresent(key);
+        if (cached != null) {
+            // Neues Token pro Request, damit die Details (z.B. Remote-Adresse) nicht vom ersten Request stammen
+            UsernamePasswordAuthenticationToken result = UsernamePasswordAuthenticationToken.authenticated(
+                    cached.getPrincipal(), null, cached.getAuthorities());
+            result.setDetails(authentication.getDetails());
+            cachedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return result;
+        }
+        return authenticateWithDelegate(authentication, key, start);
+    }
+
+    private Authentication authenticateWithDelegate(Authentication authentication, String key, long start) {
+        Long generation = generations.get(authentication.getName());
+        Authentication result;
+        try {
+            result = delegate.authenticate(authentication);
+        } catch (AuthenticationException e) {
+            delegateFailureTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+        if (key != null && result != null && result.isAuthenticated()
+                && Objects.equals(generation, generations.get(authentication.getName()))) {
+            cache.put(key, result);
+            // invalidate kann zwischen Prüfung und put gelaufen sein, ohne den Eintrag zu sehen
+            if (!Objects.equals(generation, generations.get(authentication.getName()))) {
+                cache.asMap().remove(key, result);
+            }
+        }
+        delegateSuccessTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return delegate.supports(authentication);
+    }
+
+    // Wird ausgelöst, wenn sich Passwort oder Rollen eines Users ändern oder der User gelöscht wird
+    @EventListener
+    public void onCredentialsChanged(UserCredentialsChangedEvent event) {
+        invalidate(event.username());
+    }
+
+    public void invalidate(String username) {
+        // Vor dem Entfernen, damit eine laufende Anmeldung ihren Eintrag danach nicht mehr anlegt bzw. wieder entfernt
+        generations.merge(username, 1L, Long::sum);
+        // Der Schlüssel ist ein Digest und lässt sich nicht auf den Username zurückführen, daher über die Werte suchen
+        cache.asMap().values().removeIf(authentication -> authentication.getName().equals(username));
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long hitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long missCount() {
+        return cache.stats().missCount();
+    }
+
+    private String digest(String username, String password) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(digestKey);
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            // Trennzeichen, damit ("ab", "c") und ("a", "bc") nicht denselben Digest ergeben
+            mac.update((byte) 0);
+            return Base64.getEncoder().encodeToString(mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(HMAC_ALGORITHM + " not available", e);
+        }
+    }
+}
@@ -1,18 +1,38 @@
 package example.cashcard;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.PersistenceCreator;
+import org.springframework.data.annotation.Version;
 
 @Data
-@Builder
+// toBuilder() erzeugt Kopien, z.B. damit der CashCardCache keine Instanzen herausgibt, die Aufrufer verändern können
+@Builder(toBuilder = true)
+// Bei mehreren Konstruktoren müssen Spring Data und Jackson wissen, welchen sie verwenden sollen
+@AllArgsConstructor(onConstructor_ = {@PersistenceCreator, @JsonCreator})
 public class CashCard {
     @Id
     private Long id;
-    private double amount;
+    // Betrag in Cent, in JSON als Dezimalzahl (siehe Money)
+    @MoneyAmount
+    private long amount;
     private String owner;
+    // Wird bei jedem UPDATE hochgezählt. Spring Data JDBC prüft beim save() die Version (Optimistic Locking)
+    // und wirft eine OptimisticLockingFailureException, wenn die Zeile zwischenzeitlich geändert wurde
+    @Version
+    @JsonIgnore
+    private Long version;
 
-    public void balance(double amount) {
-        this.amount += amount;
+    public CashCard(Long id, long amount, String owner) {
+        this(id, amount, owner, null);
+    }
+
+    // Exakt und ohne Allokation, wirft bei Überlauf eine ArithmeticException
+    public void balance(long amount) {
+        this.amount = Money.add(this.amount, amount);
     }
 }
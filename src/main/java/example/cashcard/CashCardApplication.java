@@ -2,8 +2,11 @@ package example.cashcard;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
 @SpringBootApplication
+// Registriert alle mit @ConfigurationProperties annotierten Klassen im Package (z.B. CashCardSecurityProperties)
+@ConfigurationPropertiesScan
 public class CashCardApplication {
 
     public static void main(String[] args) {
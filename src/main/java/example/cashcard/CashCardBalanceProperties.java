@@ -0,0 +1,38 @@
+package example.cashcard;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+// mode: wie POST /cashcards/balance/{id} in die Datenbank schreibt (siehe Mode)
+@ConfigurationProperties("cashcard.balance")
+public record CashCardBalanceProperties(@DefaultValue("DIRECT") Mode mode,
+                                        @DefaultValue WriteBehind writeBehind,
+                                        @DefaultValue Journal journal) {
+
+    public enum Mode {
+        // Jede Aufladung ist ein eigenes UPDATE (Standard)
+        DIRECT,
+        // Aufladungen werden im Speicher gesammelt und gebündelt geschrieben (WriteBehindBalanceAccumulator)
+        WRITE_BEHIND,
+        // Aufladungen werden an ein Journal angehängt, der Kontostand ergibt sich aus Snapshot und Journal (BalanceJournal)
+        JOURNAL
+    }
+
+    // flushInterval: Abstand der Flushes, flushThreshold: Anzahl Aufladungen, nach der vorzeitig geschrieben wird,
+    // maxCards: Karten mit eigenem Zähler. Weitere Karten werden direkt geschrieben, damit der Speicher begrenzt bleibt
+    public record WriteBehind(@DefaultValue("200ms") Duration flushInterval,
+                              @DefaultValue("1000") long flushThreshold,
+                              @DefaultValue("100000") int maxCards) {
+    }
+
+    // snapshotInterval: Abstand, in dem offene Journal-Einträge in cash_card.AMOUNT übernommen werden,
+    // snapshotBatchSize: Einträge pro Snapshot-Transaktion, retention: wie lange übernommene Einträge
+    // für GET /cashcards/{id}/transactions erhalten bleiben, compactionInterval: Abstand der Kompaktierung
+    public record Journal(@DefaultValue("5s") Duration snapshotInterval,
+                          @DefaultValue("10000") int snapshotBatchSize,
+                          @DefaultValue("30d") Duration retention,
+                          @DefaultValue("1h") Duration compactionInterval) {
+    }
+}
@@ -0,0 +1,10 @@
+package example.cashcard;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+// chunkSize: Operationen pro JDBC-Batch und Transaktion, maxItems: maximale Anzahl Operationen pro Request
+@ConfigurationProperties("cashcard.batch")
+public record CashCardBatchProperties(@DefaultValue("500") int chunkSize,
+                                      @DefaultValue("10000") int maxItems) {
+}
@@ -0,0 +1,177 @@
+package example.cashcard;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// Führt Batch-Requests in Chunks aus: Jeder Chunk ist ein JDBC-Batch in einer eigenen Transaktion.
+// Scheitert ein Chunk, werden seine Einträge einzeln wiederholt, damit ein fehlerhafter Eintrag nicht den ganzen Batch kippt
+@Slf4j
+@Service
+public class CashCardBatchService {
+
+    private final CashCardJdbcRepository jdbcRepository;
+    private final CashCardCache cashCardCache;
+    private final TransactionTemplate transactionTemplate;
+    private final CashCardBatchProperties properties;
+    // Nur im Modus JOURNAL vorhanden, sonst null
+    private final BalanceJournal journal;
+
+    public CashCardBatchService(CashCardJdbcRepository jdbcRepository, CashCardCache cashCardCache,
+                                TransactionTemplate transactionTemplate, CashCardBatchProperties properties,
+                                ObjectProvider<BalanceJournal> journal) {
+        this.jdbcRepository = jdbcRepository;
+        this.cashCardCache = cashCardCache;
+        this.transactionTemplate = transactionTemplate;
+        this.properties = properties;
+        this.journal = journal.getIfAvailable();
+    }
+
+    public boolean exceedsLimit(List<?> operations) {
+        return operations.size() > properties.maxItems();
+    }
+
+    public List<BatchItemResult> createAll(String owner, List<CashCard> cashCards) {
+        BatchItemResult[] results = new BatchItemResult[cashCards.size()];
+        List<Integer> valid = new ArrayList<>();
+        for (int i = 0; i < cashCards.size(); i++) {
+            CashCard cashCard = cashCards.get(i);
+            if (cashCard == null) {
+                results[i] = BatchItemResult.failure(i, HttpStatus.BAD_REQUEST.value(), "cash card is missing");
+                continue;
+            }
+            // Wie bei POST /cashcards gehört die Karte immer dem angemeldeten User, die id vergibt die Datenbank
+            cashCard.setId(null);
+            cashCard.setOwner(owner);
+            valid.add(i);
+        }
+        for (List<Integer> chunk : chunks(valid)) {
+            try {
+                insertChunk(cashCards, chunk, results);
+            } catch (DataAccessException e) {
+                for (Integer index : chunk) {
+                    try {
+                        insertChunk(cashCards, List.of(index), results);
+                    } catch (DataAccessException itemException) {
+                        results[index] = failure(index, itemException);
+                    }
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    public List<BatchItemResult> balanceAll(String owner, List<BalanceOperation> operations) {
+        BatchItemResult[] results = new BatchItemResult[operations.size()];
+        List<Integer> valid = new ArrayList<>();
+        for (int i = 0; i < operations.size(); i++) {
+            BalanceOperation operation = operations.get(i);
+            if (operation == null || operation.id() == null || operation.amount() == null) {
+                results[i] = BatchItemResult.failure(i, HttpStatus.BAD_REQUEST.value(), "id and amount are required");
+                continue;
+            }
+            valid.add(i);
+        }
+        for (List<Integer> chunk : chunks(valid)) {
+            try {
+                balanceChunk(owner, operations, chunk, results);
+            } catch (DataAccessException e) {
+                for (Integer index : chunk) {
+                    try {
+                        balanceChunk(owner, operations, List.of(index), results);
+                    } catch (DataAccessException itemException) {
+                        results[index] = failure(index, itemException);
+                    }
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    // Die Meldung des Treibers enthält SQL, Tabellen- und Constraint-Namen und Werte. Der Client bekommt nur einen
+    // festen Grund, die Exception steht im Log
+    private static BatchItemResult failure(int index, DataAccessException e) {
+        String reason;
+        if (e instanceof DuplicateKeyException) {
+            reason = "duplicate";
+        } else if (Money.isOverflow(e)) {
+            reason = "overflow";
+        } else if (e instanceof DataIntegrityViolationException) {
+            reason = "invalid";
+        } else {
+            reason = "failed";
+        }
+        log.warn("Batch item {} failed: {}", index, reason, e);
+        return BatchItemResult.failure(index, HttpStatus.BAD_REQUEST.value(), reason);
+    }
+
+    private void insertChunk(List<CashCard> cashCards, List<Integer> chunk, BatchItemResult[] results) {
+        List<CashCard> toInsert = chunk.stream().map(cashCards::get).toList();
+        transactionTemplate.executeWithoutResult(status -> jdbcRepository.insertAll(toInsert));
+        for (Integer index : chunk) {
+            results[index] = BatchItemResult.success(index, HttpStatus.CREATED.value(), cashCards.get(index));
+        }
+    }
+
+    private void balanceChunk(String owner, List<BalanceOperation> operations, List<Integer> chunk, BatchItemResult[] results) {
+        List<BalanceOperation> toApply = chunk.stream().map(operations::get).toList();
+        Map<Long, CashCard> updated = transactionTemplate.execute(status -> {
+            if (journal != null) {
+                return journalChunk(owner, toApply);
+            }
+            int[] counts = jdbcRepository.balanceAll(owner, toApply);
+            List<Long> updatedIds = new ArrayList<>();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    updatedIds.add(toApply.get(i).id());
+                }
+            }
+            // Ein SELECT pro Chunk statt pro Karte. Kommt eine Karte mehrfach im Chunk vor, enthalten alle
+            // zugehörigen Ergebnisse den Stand nach der letzten Aufladung im Chunk
+            List<CashCard> cashCards = jdbcRepository.findAllByIdInAndOwner(updatedIds, owner);
+            // Der Batch läuft an Spring Data vorbei, daher den Cache selbst aktualisieren (erst nach dem Commit)
+            cashCards.forEach(cashCardCache::put);
+            return cashCards.stream().collect(Collectors.toMap(CashCard::getId, Function.identity()));
+        });
+        for (Integer index : chunk) {
+            CashCard cashCard = updated.get(operations.get(index).id());
+            results[index] = cashCard != null
+                    ? BatchItemResult.success(index, HttpStatus.OK.value(), cashCard)
+                    : BatchItemResult.failure(index, HttpStatus.NOT_FOUND.value(), "cash card not found");
+        }
+    }
+
+    // Im Modus JOURNAL werden die Aufladungen angehängt. Der Cache wird geleert statt aktualisiert, weil parallele
+    // Aufladungen den gelesenen Stand überholen können, ohne dass sich VERSION ändert
+    private Map<Long, CashCard> journalChunk(String owner, List<BalanceOperation> toApply) {
+        int[] counts = journal.appendAll(owner, toApply);
+        List<Long> updatedIds = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                updatedIds.add(toApply.get(i).id());
+            }
+        }
+        return journal.findAllByIdInAndOwner(updatedIds, owner).stream()
+                .collect(Collectors.toMap(CashCard::getId, Function.identity()));
+    }
+
+    private List<List<Integer>> chunks(List<Integer> indexes) {
+        List<List<Integer>> chunks = new ArrayList<>();
+        for (int from = 0; from < indexes.size(); from += properties.chunkSize()) {
+            chunks.add(indexes.subList(from, Math.min(from + properties.chunkSize(), indexes.size())));
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,109 @@
+package example.cashcard;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.data.relational.core.mapping.event.AfterSaveCallback;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Optional;
+import java.util.function.Supplier;
+
+// Read-Through-Cache für einzelne Karten, Schlüssel ist (id, owner) wie bei findByIdAndOwner.
+// Gespeichert und herausgegeben werden nur Kopien, damit Aufrufer den Cache-Inhalt nicht verändern können.
+// Schreibzugriffe aktualisieren den Eintrag erst nach dem Commit und nur, wenn die Version neuer ist.
+// Damit sieht ein Leser nie einen älteren Stand als den des letzten bestätigten Schreibzugriffs auf diesem Knoten.
+// Von einem Replikat gelesene Karten werden nicht gespeichert, sie können hinter der primären DataSource zurückliegen.
+// Als AfterSaveCallback bekommt der Cache jedes ICashCardRepository.save() mit
+@Component
+public class CashCardCache implements AfterSaveCallback<CashCard> {
+
+    static final String CACHE_NAME = "cashCards";
+
+    private final boolean enabled;
+    private final Cache<Key, CashCard> cache;
+
+    public CashCardCache(CashCardCacheProperties properties, MeterRegistry meterRegistry) {
+        this.enabled = properties.enabled();
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(properties.ttl())
+                .maximumSize(properties.maxSize())
+                .recordStats()
+                .build();
+        // cache.gets (hit/miss), cache.size, cache.evictions ...
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+        Gauge.builder("cache.hit.ratio", cache, c -> c.stats().hitRate())
+                .tag("cache", CACHE_NAME)
+                .register(meterRegistry);
+    }
+
+    public Optional<CashCard> get(long id, String owner, Supplier<Optional<CashCard>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        if (ReadReplicaRouter.readsFromReplica()) {
+            CashCard cached = cache.getIfPresent(new Key(id, owner));
+            return cached != null ? Optional.of(copy(cached)) : loader.get();
+        }
+        // get() lädt pro Schlüssel höchstens einmal gleichzeitig. Ein put() auf denselben Schlüssel wartet,
+        // bis das Laden abgeschlossen ist, und kann daher nicht von einem älteren Ladeergebnis überschrieben werden.
+        // Nicht gefundene Karten werden nicht gecacht (Caffeine speichert kein null)
+        CashCard cashCard = cache.get(new Key(id, owner), key -> loader.get().map(CashCardCache::copy).orElse(null));
+        return Optional.ofNullable(cashCard).map(CashCardCache::copy);
+    }
+
+    // Übernimmt den neuen Stand einer Karte. Läuft gerade eine Transaktion, passiert das erst nach dem Commit
+    public void put(CashCard cashCard) {
+        if (!enabled) {
+            return;
+        }
+        CashCard snapshot = copy(cashCard);
+        afterCommit(() -> cache.asMap().merge(new Key(snapshot.getId(), snapshot.getOwner()), snapshot,
+                (cached, updated) -> isNewer(updated, cached) ? updated : cached));
+    }
+
+    @Override
+    public CashCard onAfterSave(CashCard aggregate) {
+        put(aggregate);
+        return aggregate;
+    }
+
+    public void evict(long id, String owner) {
+        if (!enabled) {
+            return;
+        }
+        afterCommit(() -> cache.invalidate(new Key(id, owner)));
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    private static boolean isNewer(CashCard updated, CashCard cached) {
+        return updated.getVersion() == null || cached.getVersion() == null || updated.getVersion() >= cached.getVersion();
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private static CashCard copy(CashCard cashCard) {
+        return cashCard.toBuilder().build();
+    }
+
+    private record Key(long id, String owner) {
+    }
+}
@@ -0,0 +1,13 @@
+package example.cashcard;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+// enabled=false schaltet den Cache komplett ab, z.B. für Vergleichsmessungen
+@ConfigurationProperties("cashcard.cache")
+public record CashCardCacheProperties(@DefaultValue("true") boolean enabled,
+                                      @DefaultValue("60s") Duration ttl,
+                                      @DefaultValue("10000") long maxSize) {
+}
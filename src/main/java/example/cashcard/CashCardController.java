@@ -1,19 +1,32 @@
 package example.cashcard;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
 import java.net.URI;
 import java.security.Principal;
 import java.util.List;
@@ -22,38 +35,136 @@ import java.util.Optional;
 @RestController
 @RequestMapping("/cashcards")
 public class CashCardController {
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+    static final int MAX_TRANSACTIONS_PAGE_SIZE = 1000;
+    static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    // Clients dürfen Karten speichern, müssen sie aber vor jeder Verwendung per If-None-Match prüfen.
+    // Ersetzt das "no-store" von Spring Security, das sonst jedes Speichern verbietet
+    private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
     @Autowired
     private ICashCardRepository cashCardRepository;
+    @Autowired
+    private CashCardService cashCardService;
+    @Autowired
+    private CashCardBatchService cashCardBatchService;
+    @Autowired
+    private CashCardJdbcRepository cashCardJdbcRepository;
+    @Autowired
+    private CashCardExportProperties exportProperties;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private IdempotencyService idempotencyService;
 
 
     // Handler-Methode
     // Path-Variable, wenn man eindeutige Ressource per ID ansprechen will
     // Principal wird automatisch mit dem angemeldeten User befüllt (sofern Security konfiguriert ist)
+    // Conditional GET: Passt If-None-Match zum ETag der Karte, antwortet 304 ohne Body. Die Karte kommt in der Regel
+    // aus dem CashCardCache, gespart werden dann Serialisierung und Übertragung
     @GetMapping("/{requestedId}")
-    private ResponseEntity<CashCard> findById(@PathVariable() Long requestedId, Principal principal) {
-        Optional<CashCard> cashCardOptional = cashCardRepository.findByIdAndOwner(requestedId, principal.getName());
-        return cashCardOptional.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
+    private ResponseEntity<CashCard> findById(@PathVariable() Long requestedId,
+                                              @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                              Principal principal) {
+        Optional<CashCard> cashCardOptional = cashCardService.findById(requestedId, principal.getName());
+        if (cashCardOptional.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        String etag = CashCardETag.of(cashCardOptional.get());
+        if (CashCardETag.matches(ifNoneMatch, etag)) {
+            return notModified(etag);
+        }
+        return ResponseEntity.ok().eTag(etag).cacheControl(REVALIDATE).body(cashCardOptional.get());
+    }
+
+    // Gesamtbetrag und Anzahl der Karten des Owners als ein Primärschlüssel-Zugriff, ohne über die Karten zu blättern.
+    // Die Summe folgt cash_card: In den Modi WRITE_BEHIND und JOURNAL enthält sie Aufladungen erst nach Flush bzw. Snapshot
+    @GetMapping("summary")
+    private ResponseEntity<OwnerSummary> summary(Principal principal) {
+        return ResponseEntity.ok(cashCardJdbcRepository.findSummary(principal.getName())
+                .orElseGet(() -> new OwnerSummary(principal.getName(), 0, 0)));
+    }
+
+    // Verlauf der Aufladungen einer Karte aus dem Journal (Modus JOURNAL) im Sequenzbereich after < sequence <= to,
+    // aufsteigend sortiert. Bei voller Seite enthält X-Next-Cursor die letzte Sequenz, der Client übergibt sie als after
+    @GetMapping("/{requestedId}/transactions")
+    private ResponseEntity<List<CashCardTransaction>> findTransactions(@PathVariable() Long requestedId,
+                                                                       @RequestParam(defaultValue = "0") long after,
+                                                                       @RequestParam(required = false) Long to,
+                                                                       @RequestParam(defaultValue = "100") int size,
+                                                                       Principal principal) {
+        if (size < 1 || size > MAX_TRANSACTIONS_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (cashCardService.findById(requestedId, principal.getName()).isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        List<CashCardTransaction> transactions = cashCardJdbcRepository.findTransactions(requestedId,
+                principal.getName(), after, to == null ? Long.MAX_VALUE : to, size);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (transactions.size() == size) {
+            response.header(NEXT_CURSOR_HEADER, String.valueOf(transactions.get(transactions.size() - 1).sequence()));
+        }
+        return response.body(transactions);
     }
 
+    // sync=true: Im Modus WRITE_BEHIND erst antworten, wenn die Aufladung geschrieben ist. Scheitert das Schreiben,
+    // bleibt die Aufladung angenommen und wird später geschrieben: 202 statt eines Fehlers, damit der Client sie nicht
+    // ein zweites Mal bucht.
+    // Mit Idempotency-Key wird eine wiederholte Aufladung nur einmal gebucht (IdempotencyService)
     @PostMapping(value = "balance/{requestedId}", consumes = "application/json")
-    private ResponseEntity<CashCard> balance(@PathVariable() Long requestedId, @RequestBody() BalanceRequestDto input, Principal principal) {
+    private ResponseEntity<CashCard> balance(@PathVariable() Long requestedId, @RequestBody() BalanceRequestDto input,
+                                             @RequestParam(defaultValue = "false") boolean sync,
+                                             @RequestHeader(value = IdempotencyService.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                             Principal principal) {
         // Statt das DTO kann man auch Map<String, String> balance verwenden nehmen
-        ResponseEntity<CashCard> responseEntity = findById(requestedId, principal);
-        if (!responseEntity.getStatusCode().is2xxSuccessful() || !responseEntity.hasBody()) {
-            return ResponseEntity.notFound().build();
+        if (input.amount() == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (idempotencyKey != null) {
+            return idempotencyService.execute(principal.getName(), idempotencyKey,
+                    "balance:" + requestedId + ":" + input.amount(),
+                    () -> balance(requestedId, input.amount(), sync, principal));
         }
-        CashCard cashCard = responseEntity.getBody();
-        cashCard.balance(input.amount);
-        cashCardRepository.save(cashCard);
-        return ResponseEntity.ok(cashCard);
+        return balance(requestedId, input.amount(), sync, principal);
     }
 
+    private ResponseEntity<CashCard> balance(Long requestedId, long amount, boolean sync, Principal principal) {
+        // Owner-Prüfung und amount = amount + ? in einem Statement. Parallele Aufladungen derselben Karte
+        // überschreiben sich so nicht mehr gegenseitig
+        try {
+            Optional<CashCard> balanced = cashCardService.balance(requestedId, principal.getName(), amount);
+            if (balanced.isEmpty()) {
+                return ResponseEntity.notFound().build();
+            }
+            if (sync && !cashCardService.awaitWritten(requestedId)) {
+                return ResponseEntity.accepted().body(balanced.get());
+            }
+            return ResponseEntity.ok(balanced.get());
+        } catch (ArithmeticException e) {
+            // Überlauf, wie "overflow" bei balance/batch
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    // Mit Idempotency-Key legt ein wiederholter Request keine zweite Karte an, sondern liefert die erste
     @PostMapping()
-    private ResponseEntity<CashCard> create(@RequestBody CashCard cashCard, UriComponentsBuilder builder, Principal principal) {
+    private ResponseEntity<CashCard> create(@RequestBody CashCard cashCard, UriComponentsBuilder builder,
+                                            @RequestHeader(value = IdempotencyService.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                            Principal principal) {
+        if (idempotencyKey != null) {
+            return idempotencyService.execute(principal.getName(), idempotencyKey, "create:" + cashCard.getAmount(),
+                    () -> create(cashCard, builder, principal));
+        }
+        return create(cashCard, builder, principal);
+    }
+
+    private ResponseEntity<CashCard> create(CashCard cashCard, UriComponentsBuilder builder, Principal principal) {
         // UriComponentsBuilder wird vom IoC-Container bereitgestellt. @Autowired wird meist nur bei Feldern und eigenen
         // Methoden verwendet. In den Parametern von Handler-Methoden werden die Objekte automatisch bereitgestellt
-        cashCard.setOwner(principal.getName());
-        CashCard savedCashCard = cashCardRepository.save(cashCard);
+        CashCard savedCashCard = cashCardService.create(cashCard, principal.getName());
 
         //  HTTP-Standard (RFC 7231) sollte eine erfolgreiche POST-Anfrage, die eine neue Ressource erstellt (Status 201 Created),
         //  im Response-Body die erzeugte Ressource zurückgeben. Zusätzlich sollte der Location-Header die URI der neuen Ressource enthalten
@@ -66,22 +177,162 @@ public class CashCardController {
         return ResponseEntity.created(locationOfNewCashCard).body(cashCard);
     }
 
+    // Legt viele Karten in einem Request an. Die Einträge werden als JDBC-Batch in Chunks geschrieben,
+    // jeder Eintrag bekommt ein eigenes Ergebnis (201 oder Fehler), ein fehlerhafter Eintrag bricht den Batch nicht ab
+    @PostMapping(value = "batch", consumes = "application/json")
+    private ResponseEntity<List<BatchItemResult>> createBatch(@RequestBody List<CashCard> cashCards, Principal principal) {
+        if (cashCardBatchService.exceedsLimit(cashCards)) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+        return ResponseEntity.ok(cashCardBatchService.createAll(principal.getName(), cashCards));
+    }
+
+    // Wie balance/{requestedId}, aber für viele Karten. Fremde oder unbekannte ids ergeben pro Eintrag ein 404
+    @PostMapping(value = "balance/batch", consumes = "application/json")
+    private ResponseEntity<List<BatchItemResult>> balanceBatch(@RequestBody List<BalanceOperation> operations, Principal principal) {
+        if (cashCardBatchService.exceedsLimit(operations)) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+        return ResponseEntity.ok(cashCardBatchService.balanceAll(principal.getName(), operations));
+    }
+
     @GetMapping
     // Pageable wird automatisch aus den Request-Parametern page und size befüllt
     // Standardwerte können in application.properties mit spring.data.web.pageable.* konfiguriert werden
-    private ResponseEntity<List<CashCard>> findAll(Pageable pageable, Principal principal) {
-        // Das Repository muss allerdings das Paging unterstützen (extends PagingAndSortingRepository)
-        Page<CashCard> page = cashCardRepository.findByOwner(principal.getName(),
-                PageRequest.of(
-                        pageable.getPageNumber(),
-                        pageable.getPageSize(),
-                        // Wenn kein Sortierparameter angegeben wurde, wird standardmäßig nach amount aufsteigend sortiert
-                        pageable.getSortOr(Sort.by(Sort.Direction.ASC, "amount"))
-                ));
-        return ResponseEntity.ok(page.getContent());
+    // Mit cursor wird statt page die Keyset-Pagination verwendet, total=true liefert zusätzlich X-Total-Count
+    // Conditional GET: Das ETag deckt ids, Versionen und Beträge der Seite ab (und X-Total-Count, falls angefordert).
+    // Bei Sortierung nach amount wird es bei If-None-Match zuerst aus ID, VERSION und AMOUNT berechnet und bei
+    // Übereinstimmung 304 geantwortet, ohne Karten zu laden. Nicht in den Modi WRITE_BEHIND und JOURNAL, dort enthält
+    // AMOUNT noch nicht alle Aufladungen.
+    // Die Beträge sind dieselben wie bei GET /cashcards/{id}, sortiert und geblättert wird nach cash_card.AMOUNT
+    private ResponseEntity<List<CashCard>> findAll(Pageable pageable,
+                                                   @RequestParam(required = false) String cursor,
+                                                   @RequestParam(defaultValue = "false") boolean total,
+                                                   @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                   Principal principal) {
+        CashCardCursor position = null;
+        if (cursor != null) {
+            try {
+                position = CashCardCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().build();
+            }
+        }
+        // Wenn kein Sortierparameter angegeben wurde, wird standardmäßig nach amount aufsteigend sortiert
+        Sort sort = pageable.getSortOr(Sort.by(Sort.Direction.ASC, "amount"));
+        Sort.Direction direction = position != null ? position.direction() : keysetDirection(sort);
+        // Das COUNT läuft nur, wenn der Client die Gesamtzahl ausdrücklich anfordert
+        Long totalCount = total ? cashCardRepository.countByOwner(principal.getName()) : null;
+
+        if (ifNoneMatch != null && direction != null && cashCardService.storesCurrentAmounts()) {
+            List<CashCardVersion> versions;
+            if (position == null) {
+                versions = cashCardJdbcRepository.findVersionsByOwner(principal.getName(), direction,
+                        pageable.getOffset(), pageable.getPageSize());
+            } else if (direction.isAscending()) {
+                versions = cashCardJdbcRepository.findVersionsByOwnerAfter(principal.getName(), position.amount(),
+                        position.id(), pageable.getPageSize());
+            } else {
+                versions = cashCardJdbcRepository.findVersionsByOwnerBefore(principal.getName(), position.amount(),
+                        position.id(), pageable.getPageSize());
+            }
+            String etag = CashCardETag.ofVersions(versions, totalCount);
+            if (CashCardETag.matches(ifNoneMatch, etag)) {
+                return notModified(etag);
+            }
+        }
+
+        List<CashCard> cashCards;
+        if (position != null) {
+            cashCards = direction.isAscending()
+                    ? cashCardRepository.findByOwnerAfter(principal.getName(), position.amount(), position.id(), pageable.getPageSize())
+                    : cashCardRepository.findByOwnerBefore(principal.getName(), position.amount(), position.id(), pageable.getPageSize());
+        } else {
+            if (direction != null) {
+                // Bei gleichem amount entscheidet die id, damit die Reihenfolge eindeutig ist und ein Cursor daran anschließen kann
+                sort = sort.and(Sort.by(direction, "id"));
+            }
+            // Das Repository muss allerdings das Paging unterstützen (extends PagingAndSortingRepository)
+            cashCards = cashCardRepository.findByOwner(principal.getName(),
+                    PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(), sort));
+        }
+
+        // Der Cursor setzt am gespeicherten Betrag der letzten Karte an, wie die Abfragen des Repositories
+        String nextCursor = null;
+        if (direction != null && !cashCards.isEmpty() && cashCards.size() == pageable.getPageSize()) {
+            nextCursor = CashCardCursor.after(cashCards.get(cashCards.size() - 1), direction).encode();
+        }
+        cashCards = cashCardService.withCurrentAmounts(cashCards, principal.getName());
+
+        // Andere Sortierungen: Das ETag wird aus den geladenen Karten berechnet, gespart wird die Serialisierung
+        String etag = CashCardETag.of(cashCards, totalCount);
+        if (CashCardETag.matches(ifNoneMatch, etag)) {
+            return notModified(etag);
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(etag).cacheControl(REVALIDATE);
+        // Nur bei einer vollen Seite kann es weitere Karten geben
+        if (nextCursor != null) {
+            response.header(NEXT_CURSOR_HEADER, nextCursor);
+        }
+        if (totalCount != null) {
+            response.header(TOTAL_COUNT_HEADER, String.valueOf(totalCount));
+        }
+        return response.body(cashCards);
+    }
+
+    // Exportiert alle Karten des Owners als NDJSON (eine Karte pro Zeile) für Abgleich-Jobs, mit denselben Beträgen wie
+    // GET /cashcards/{id}. Die Karten werden direkt aus dem JDBC-Cursor in die Response geschrieben, ohne Seiten oder
+    // COUNT. Der Speicherbedarf hängt so nicht von der Anzahl der Karten ab. minAmount und maxAmount schränken den Betrag optional ein (inklusive)
+    @GetMapping("export")
+    private ResponseEntity<StreamingResponseBody> export(@RequestParam(required = false) BigDecimal minAmount,
+                                                         @RequestParam(required = false) BigDecimal maxAmount,
+                                                         Principal principal) {
+        Long minCents;
+        Long maxCents;
+        try {
+            minCents = minAmount == null ? null : Money.toCents(minAmount);
+            maxCents = maxAmount == null ? null : Money.toCents(maxAmount);
+        } catch (ArithmeticException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        // Der Body wird asynchron geschrieben, der Owner muss vorher ausgelesen werden
+        String owner = principal.getName();
+        ObjectWriter cardWriter = objectMapper.writerFor(CashCard.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                // Ohne Trennzeichen zwischen den Werten, jede Zeile endet mit \n
+                generator.setRootValueSeparator(null);
+                cashCardService.export(owner, minCents, maxCents, exportProperties.fetchSize(),
+                        cashCard -> {
+                            try {
+                                cardWriter.writeValue(generator, cashCard);
+                                generator.writeRaw('\n');
+                            } catch (IOException e) {
+                                // Client hat die Verbindung getrennt: bricht die Abfrage ab
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+            }
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    private static <T> ResponseEntity<T> notModified(String etag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(REVALIDATE).build();
+    }
+
+    // Ein Cursor kann nur ausgegeben werden, wenn ausschließlich nach amount sortiert wird (passend zum Index)
+    private static Sort.Direction keysetDirection(Sort sort) {
+        List<Sort.Order> orders = sort.toList();
+        if (orders.size() != 1 || !orders.get(0).getProperty().equals("amount")) {
+            return null;
+        }
+        return orders.get(0).getDirection();
     }
 
-    private record BalanceRequestDto(Double amount) {
+    // amount in Cent, in JSON als Dezimalzahl
+    private record BalanceRequestDto(@MoneyAmount Long amount) {
 
     }
 }
@@ -0,0 +1,29 @@
+package example.cashcard;
+
+import org.springframework.data.domain.Sort;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+// Position für die Keyset-Pagination: Sortierschlüssel (amount, id) der letzten Karte einer Seite und die Sortierrichtung.
+// Für den Client ist der Cursor eine undurchsichtige Zeichenkette, die er unverändert zurückschickt
+public record CashCardCursor(long amount, long id, Sort.Direction direction) {
+
+    public static CashCardCursor after(CashCard cashCard, Sort.Direction direction) {
+        return new CashCardCursor(cashCard.getAmount(), cashCard.getId(), direction);
+    }
+
+    // Wirft eine IllegalArgumentException, wenn der Cursor nicht von encode() stammt
+    public static CashCardCursor decode(String cursor) {
+        String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        return new CashCardCursor(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Sort.Direction.fromString(parts[2]));
+    }
+
+    public String encode() {
+        String raw = amount + ":" + id + ":" + direction.name();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,45 @@
+package example.cashcard;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.List;
+
+@ConfigurationProperties("cashcard.database")
+public record CashCardDatabaseProperties(@DefaultValue Limiter limiter, @DefaultValue Replicas replicas,
+                                         @DefaultValue Shards shards) {
+
+    // maxConcurrent: gleichzeitig offene Verbindungen, alle weiteren warten in der Reihenfolge ihres Eintreffens.
+    // acquireTimeout: längste Wartezeit, danach scheitert die Anfrage mit CannotGetJdbcConnectionException
+    public record Limiter(@DefaultValue("true") boolean enabled,
+                          @DefaultValue("10") int maxConcurrent,
+                          @DefaultValue("30s") Duration acquireTimeout) {
+    }
+
+    // nodes: Lese-Replikate, ohne Einträge geht alles an die primäre DataSource.
+    // stickiness: so lange nach einem Schreibzugriff liest derselbe User von der primären DataSource.
+    // healthCheckInterval/healthCheckTimeout: Prüfung der Replikate mit Connection.isValid()
+    public record Replicas(List<Node> nodes,
+                           @DefaultValue("5s") Duration stickiness,
+                           @DefaultValue("10s") Duration healthCheckInterval,
+                           @DefaultValue("2s") Duration healthCheckTimeout) {
+
+        public Replicas {
+            nodes = nodes == null ? List.of() : List.copyOf(nodes);
+        }
+    }
+
+    // nodes: weitere Shards ab Shard 1, Shard 0 ist immer die DataSource aus spring.datasource.
+    // virtualNodes: Punkte pro Shard auf dem Hash-Ring, mehr Punkte verteilen die Owner gleichmäßiger
+    public record Shards(List<Node> nodes,
+                         @DefaultValue("64") int virtualNodes) {
+
+        public Shards {
+            nodes = nodes == null ? List.of() : List.copyOf(nodes);
+        }
+    }
+
+    public record Node(String url, String username, String password) {
+    }
+}
@@ -0,0 +1,50 @@
+package example.cashcard;
+
+import org.springframework.util.DigestUtils;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+// Starke ETags für Karten und Seiten von Karten. Das ETag ist ein Hash über id, VERSION und Betrag jeder Karte
+// in Reihenfolge der Seite und kann deshalb aus einer Abfrage dieser drei Spalten berechnet werden, ohne Karten
+// zu laden oder zu serialisieren. Gleiche Karten in gleicher Reihenfolge ergeben dieselbe Antwort
+public final class CashCardETag {
+
+    private CashCardETag() {
+    }
+
+    public static String of(CashCard cashCard) {
+        return ofVersions(List.of(CashCardVersion.of(cashCard)), null);
+    }
+
+    public static String of(List<CashCard> cashCards, Long totalCount) {
+        return ofVersions(cashCards.stream().map(CashCardVersion::of).toList(), totalCount);
+    }
+
+    // totalCount fließt mit ein, wenn die Antwort X-Total-Count enthält
+    public static String ofVersions(List<CashCardVersion> versions, Long totalCount) {
+        ByteBuffer buffer = ByteBuffer.allocate(versions.size() * 3 * Long.BYTES + Long.BYTES);
+        for (CashCardVersion version : versions) {
+            buffer.putLong(version.id()).putLong(version.version()).putLong(version.amount());
+        }
+        buffer.putLong(totalCount == null ? -1 : totalCount);
+        return "\"" + DigestUtils.md5DigestAsHex(buffer.array()) + "\"";
+    }
+
+    // If-None-Match mit schwachem Vergleich (RFC 9110, 13.1.2): W/-Präfix wird ignoriert, * passt immer
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
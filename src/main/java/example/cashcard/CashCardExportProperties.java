@@ -0,0 +1,10 @@
+package example.cashcard;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+// fetchSize: Zeilen, die der JDBC-Treiber pro Roundtrip lädt. Bestimmt den Speicherbedarf des Exports,
+// unabhängig davon, wie viele Karten ein Owner hat
+@ConfigurationProperties("cashcard.export")
+public record CashCardExportProperties(@DefaultValue("500") int fetchSize) {
+}
@@ -0,0 +1,16 @@
+package example.cashcard;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+// ttl: so lange wird eine Antwort mindestens wiederholt, danach löscht sie der Hintergrund-Thread (alle purgeInterval).
+// maxSize: Antworten im Speicher, ältere kommen bei Bedarf aus der Datenbank.
+// waitTimeout: so lange wartet ein paralleler Request mit demselben Key auf den ersten, danach 409
+@ConfigurationProperties("cashcard.idempotency")
+public record CashCardIdempotencyProperties(@DefaultValue("24h") Duration ttl,
+                                            @DefaultValue("10000") long maxSize,
+                                            @DefaultValue("30s") Duration waitTimeout,
+                                            @DefaultValue("10m") Duration purgeInterval) {
+}
@@ -0,0 +1,538 @@
+package example.cashcard;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Ergänzt ICashCardRepository um Operationen, die Spring Data JDBC nicht abbildet (z.B. JDBC-Batches).
+// Die Methoden laufen in der Transaktion des Aufrufers.
+// Die Laufzeiten landen wie bei den Spring Data Repositories im Timer spring.data.repository.invocations
+@Repository
+public class CashCardJdbcRepository {
+
+    private static final String REPOSITORY_TIMER = "spring.data.repository.invocations";
+
+    static final RowMapper<CashCard> CASH_CARD_ROW_MAPPER = (rs, rowNum) -> new CashCard(
+            rs.getLong("ID"),
+            rs.getLong("AMOUNT"),
+            rs.getString("OWNER"),
+            rs.getLong("VERSION"));
+
+    static final RowMapper<CashCardVersion> VERSION_ROW_MAPPER = (rs, rowNum) -> new CashCardVersion(
+            rs.getLong("ID"),
+            rs.getLong("VERSION"),
+            rs.getLong("AMOUNT"));
+
+    static final RowMapper<CashCardTransaction> TRANSACTION_ROW_MAPPER = (rs, rowNum) -> new CashCardTransaction(
+            rs.getLong("SEQ"),
+            rs.getLong("CARD_ID"),
+            rs.getLong("AMOUNT"),
+            rs.getObject("CREATED_AT", OffsetDateTime.class).toInstant());
+
+    // Kontostand im Modus JOURNAL: Snapshot (AMOUNT) plus offene Journal-Einträge. Als ein Statement gelesen,
+    // sieht es einen Snapshot immer zusammen mit genau den Einträgen, die er noch nicht enthält
+    static final String SELECT_WITH_JOURNAL = """
+            SELECT c.ID, c.OWNER, c.VERSION, c.AMOUNT + COALESCE((SELECT SUM(t.AMOUNT) FROM cash_card_transaction t
+                WHERE t.IN_SNAPSHOT = FALSE AND t.CARD_ID = c.ID), 0) AS AMOUNT
+            FROM cash_card c
+            """;
+    // Hängt nur an, wenn die Karte existiert und dem Owner gehört (0 Zeilen sonst).
+    // Der CAST auf BIGINT scheitert mit SQLState 22003, wenn Snapshot plus offene Einträge plus Aufladung nicht mehr in
+    // long passen. Sonst würde jedes Lesen der Karte und jeder Snapshot an diesem Eintrag scheitern.
+    // Gleichzeitige, noch nicht committete Aufladungen derselben Karte sieht die Prüfung nicht, dafür übernimmt
+    // snapshotTransactions eine überlaufende Karte nicht und lässt die übrigen weiterlaufen
+    private static final String APPEND_TRANSACTION = """
+            INSERT INTO cash_card_transaction (CARD_ID, OWNER, AMOUNT)
+            SELECT c.ID, c.OWNER, ? FROM cash_card c WHERE c.ID = ? AND c.OWNER = ?
+                AND CAST(CAST(c.AMOUNT AS NUMERIC(38)) + COALESCE((SELECT SUM(t.AMOUNT) FROM cash_card_transaction t
+                    WHERE t.IN_SNAPSHOT = FALSE AND t.CARD_ID = c.ID), 0) + ? AS BIGINT) IS NOT NULL
+            """;
+    private static final String ADD_TO_SUMMARY = """
+            UPDATE cash_card_owner_summary SET TOTAL_AMOUNT = TOTAL_AMOUNT + ?, CARD_COUNT = CARD_COUNT + ?
+            WHERE OWNER = ?
+            """;
+    // Owner, deren Summe nicht zu cash_card passt: abweichende oder fehlende Summen und Summen von Ownern ohne Karten.
+    // Ein Statement, damit Karten und Summen aus demselben Stand verglichen werden
+    private static final String SELECT_SUMMARY_DRIFT = """
+            SELECT c.OWNER, c.TOTAL_AMOUNT, c.CARD_COUNT,
+                COALESCE(s.TOTAL_AMOUNT, 0) AS SUMMARY_AMOUNT, COALESCE(s.CARD_COUNT, 0) AS SUMMARY_CARDS
+            FROM (SELECT OWNER, SUM(AMOUNT) AS TOTAL_AMOUNT, COUNT(*) AS CARD_COUNT FROM cash_card GROUP BY OWNER) c
+            LEFT JOIN cash_card_owner_summary s ON s.OWNER = c.OWNER
+            WHERE s.OWNER IS NULL OR s.TOTAL_AMOUNT <> c.TOTAL_AMOUNT OR s.CARD_COUNT <> c.CARD_COUNT
+            UNION ALL
+            SELECT s.OWNER, 0, 0, s.TOTAL_AMOUNT, s.CARD_COUNT
+            FROM cash_card_owner_summary s
+            WHERE (s.TOTAL_AMOUNT <> 0 OR s.CARD_COUNT <> 0)
+                AND NOT EXISTS (SELECT 1 FROM cash_card c WHERE c.OWNER = s.OWNER)
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final MeterRegistry meterRegistry;
+
+    public CashCardJdbcRepository(JdbcTemplate jdbcTemplate, NamedParameterJdbcTemplate namedParameterJdbcTemplate,
+                                  MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    // Fügt alle Karten mit einem einzigen JDBC-Batch ein und setzt die generierten ids an den Objekten.
+    // Passt die Owner-Summen mit an
+    public void insertAll(List<CashCard> cashCards) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        timed("insertAll", () -> jdbcTemplate.batchUpdate(
+                connection -> connection.prepareStatement(
+                        "INSERT INTO cash_card (AMOUNT, OWNER) VALUES (?, ?)", new String[]{"ID"}),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        ps.setLong(1, cashCards.get(i).getAmount());
+                        ps.setString(2, cashCards.get(i).getOwner());
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return cashCards.size();
+                    }
+                },
+                keyHolder));
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        for (int i = 0; i < cashCards.size(); i++) {
+            cashCards.get(i).setId(((Number) keys.get(i).get("ID")).longValue());
+            cashCards.get(i).setVersion(0L);
+        }
+        SortedMap<String, long[]> summaries = new TreeMap<>();
+        for (CashCard cashCard : cashCards) {
+            addTo(summaries, cashCard.getOwner(), cashCard.getAmount(), 1);
+        }
+        addToSummaries(summaries);
+    }
+
+    // Erhöht die Beträge mit einem JDBC-Batch. Das Ergebnis enthält pro Operation die Anzahl geänderter Zeilen,
+    // 0 bedeutet: Karte existiert nicht oder gehört einem anderen Owner. Passt die Owner-Summe mit an
+    public int[] balanceAll(String owner, List<BalanceOperation> operations) {
+        int[] counts = timed("balanceAll", () -> jdbcTemplate.batchUpdate(
+                "UPDATE cash_card SET amount = amount + ?, version = version + 1 WHERE id = ? AND owner = ?",
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        ps.setLong(1, operations.get(i).amount());
+                        ps.setLong(2, operations.get(i).id());
+                        ps.setString(3, owner);
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return operations.size();
+                    }
+                }));
+        SortedMap<String, long[]> summaries = new TreeMap<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                addTo(summaries, owner, operations.get(i).amount(), 0);
+            }
+        }
+        addToSummaries(summaries);
+        return counts;
+    }
+
+    // Wie balanceAll, aber mit eigenem Owner pro Eintrag (Flush des WriteBehindBalanceAccumulator)
+    public int[] applyDeltas(List<BalanceDelta> deltas) {
+        int[] counts = timed("applyDeltas", () -> jdbcTemplate.batchUpdate(
+                "UPDATE cash_card SET amount = amount + ?, version = version + 1 WHERE id = ? AND owner = ?",
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        ps.setLong(1, deltas.get(i).amount());
+                        ps.setLong(2, deltas.get(i).id());
+                        ps.setString(3, deltas.get(i).owner());
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return deltas.size();
+                    }
+                }));
+        SortedMap<String, long[]> summaries = new TreeMap<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                addTo(summaries, deltas.get(i).owner(), deltas.get(i).amount(), 0);
+            }
+        }
+        addToSummaries(summaries);
+        return counts;
+    }
+
+    // Nur ID, VERSION und AMOUNT einer Seite für ETags, in derselben Reihenfolge wie die Seiten-Abfragen
+    // des ICashCardRepository (amount, dann id). Keyset-Seiten wie findByOwnerAfter/findByOwnerBefore
+    public List<CashCardVersion> findVersionsByOwnerAfter(String owner, long amount, long id, int limit) {
+        return timed("findVersionsByOwnerAfter", () -> jdbcTemplate.query("""
+                        SELECT ID, VERSION, AMOUNT FROM cash_card
+                        WHERE OWNER = ? AND AMOUNT >= ? AND (AMOUNT > ? OR ID > ?)
+                        ORDER BY AMOUNT ASC, ID ASC
+                        LIMIT ?
+                        """,
+                VERSION_ROW_MAPPER, owner, amount, amount, id, limit));
+    }
+
+    public List<CashCardVersion> findVersionsByOwnerBefore(String owner, long amount, long id, int limit) {
+        return timed("findVersionsByOwnerBefore", () -> jdbcTemplate.query("""
+                        SELECT ID, VERSION, AMOUNT FROM cash_card
+                        WHERE OWNER = ? AND AMOUNT <= ? AND (AMOUNT < ? OR ID < ?)
+                        ORDER BY AMOUNT DESC, ID DESC
+                        LIMIT ?
+                        """,
+                VERSION_ROW_MAPPER, owner, amount, amount, id, limit));
+    }
+
+    // Offset-Seite sortiert nach amount und id in direction
+    public List<CashCardVersion> findVersionsByOwner(String owner, Sort.Direction direction, long offset, int limit) {
+        String order = direction.isAscending() ? "ASC" : "DESC";
+        return timed("findVersionsByOwner", () -> jdbcTemplate.query(
+                "SELECT ID, VERSION, AMOUNT FROM cash_card WHERE OWNER = ? ORDER BY AMOUNT " + order + ", ID " + order
+                        + " LIMIT ? OFFSET ?",
+                VERSION_ROW_MAPPER, owner, limit, offset));
+    }
+
+    public List<CashCard> findAllByIdInAndOwner(Collection<Long> ids, String owner) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return timed("findAllByIdInAndOwner", () -> namedParameterJdbcTemplate.query(
+                "SELECT * FROM cash_card WHERE id IN (:ids) AND owner = :owner",
+                new MapSqlParameterSource("ids", ids).addValue("owner", owner),
+                CASH_CARD_ROW_MAPPER));
+    }
+
+    // Liest alle Karten eines Owners mit einem Forward-only-Cursor und übergibt sie einzeln an den Consumer,
+    // ohne eine Liste aufzubauen. Der Betragsfilter wird nur ins SQL aufgenommen, wenn er gesetzt ist, damit der Index
+    // (OWNER, AMOUNT, ID) genutzt wird. Wirft der Consumer (z.B. weil der Client die Verbindung getrennt hat),
+    // schließt JdbcTemplate Statement und ResultSet und die Abfrage wird abgebrochen
+    public long streamByOwner(String owner, Long minAmount, Long maxAmount, int fetchSize,
+                              Consumer<CashCard> consumer) {
+        return stream("streamByOwner", "cash_card", owner, minAmount, maxAmount, fetchSize, consumer);
+    }
+
+    // Wie streamByOwner, aber mit dem Kontostand aus Snapshot und offenen Journal-Einträgen (Modus JOURNAL).
+    // Betragsfilter und Sortierung beziehen sich auf diesen Kontostand. H2 reicht die Owner-Bedingung in die
+    // Unterabfrage weiter, gelesen werden über den Index nur die Karten des Owners
+    public long streamWithJournalByOwner(String owner, Long minAmount, Long maxAmount, int fetchSize,
+                                         Consumer<CashCard> consumer) {
+        return stream("streamWithJournalByOwner", "(" + SELECT_WITH_JOURNAL + ") c", owner, minAmount, maxAmount,
+                fetchSize, consumer);
+    }
+
+    private long stream(String method, String from, String owner, Long minAmount, Long maxAmount, int fetchSize,
+                        Consumer<CashCard> consumer) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM " + from + " WHERE owner = ?");
+        List<Object> parameters = new ArrayList<>();
+        parameters.add(owner);
+        if (minAmount != null) {
+            sql.append(" AND amount >= ?");
+            parameters.add(minAmount);
+        }
+        if (maxAmount != null) {
+            sql.append(" AND amount <= ?");
+            parameters.add(maxAmount);
+        }
+        sql.append(" ORDER BY amount ASC, id ASC");
+        return timed(method, () -> {
+            long[] count = {0};
+            jdbcTemplate.query(connection -> {
+                PreparedStatement ps = connection.prepareStatement(sql.toString(),
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                ps.setFetchSize(fetchSize);
+                for (int i = 0; i < parameters.size(); i++) {
+                    ps.setObject(i + 1, parameters.get(i));
+                }
+                return ps;
+            }, (RowCallbackHandler) rs -> consumer.accept(CASH_CARD_ROW_MAPPER.mapRow(rs, (int) count[0]++)));
+            return count[0];
+        });
+    }
+
+    public int appendTransaction(long id, String owner, long amount) {
+        return timed("appendTransaction", () -> jdbcTemplate.update(APPEND_TRANSACTION, amount, id, owner, amount));
+    }
+
+    public int[] appendTransactions(String owner, List<BalanceOperation> operations) {
+        return timed("appendTransactions", () -> jdbcTemplate.batchUpdate(APPEND_TRANSACTION,
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        ps.setLong(1, operations.get(i).amount());
+                        ps.setLong(2, operations.get(i).id());
+                        ps.setString(3, owner);
+                        ps.setLong(4, operations.get(i).amount());
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return operations.size();
+                    }
+                }));
+    }
+
+    public Optional<CashCard> findWithJournalByIdAndOwner(long id, String owner) {
+        return timed("findWithJournalByIdAndOwner", () -> jdbcTemplate.query(
+                SELECT_WITH_JOURNAL + "WHERE c.ID = ? AND c.OWNER = ?", CASH_CARD_ROW_MAPPER, id, owner)
+                .stream().findFirst());
+    }
+
+    public List<CashCard> findAllWithJournalByIdInAndOwner(Collection<Long> ids, String owner) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return timed("findAllWithJournalByIdInAndOwner", () -> namedParameterJdbcTemplate.query(
+                SELECT_WITH_JOURNAL + "WHERE c.ID IN (:ids) AND c.OWNER = :owner",
+                new MapSqlParameterSource("ids", ids).addValue("owner", owner),
+                CASH_CARD_ROW_MAPPER));
+    }
+
+    // Journal-Einträge einer Karte mit afterSequence < SEQ <= toSequence, aufsteigend. Nutzt den Index (CARD_ID, SEQ)
+    public List<CashCardTransaction> findTransactions(long id, String owner, long afterSequence, long toSequence, int limit) {
+        return timed("findTransactions", () -> jdbcTemplate.query("""
+                        SELECT * FROM cash_card_transaction
+                        WHERE CARD_ID = ? AND OWNER = ? AND SEQ > ? AND SEQ <= ?
+                        ORDER BY SEQ ASC LIMIT ?
+                        """,
+                TRANSACTION_ROW_MAPPER, id, owner, afterSequence, toSequence, limit));
+    }
+
+    // Übernimmt bis zu limit offene Journal-Einträge in cash_card.AMOUNT und markiert genau diese Einträge.
+    // Muss in einer Transaktion laufen, damit Leser entweder den alten oder den neuen Snapshot samt passender
+    // offener Einträge sehen. Markiert wird über die gelesenen SEQs und nicht über einen SEQ-Bereich: Ein Eintrag
+    // mit kleinerer SEQ, dessen Transaktion erst später committet, bleibt so offen und kommt in den nächsten Snapshot.
+    // Die Einträge werden per FOR UPDATE gesperrt und nur übernommen, wenn diese Transaktion sie tatsächlich von
+    // FALSE auf TRUE setzt. Ein paralleler Snapshot (auch einer anderen Instanz) wartet auf die Sperren, und Einträge,
+    // die er inzwischen übernommen hat, werden nicht noch einmal gezählt.
+    // Würde AMOUNT einer Karte überlaufen, bleiben ihre Einträge offen und die Karte landet in skippedCards. Deren
+    // Einträge werden danach nicht mehr gelesen, damit sie nicht jeden weiteren Batch belegen.
+    // VERSION bleibt unverändert, weil sich der Kontostand der Karte durch den Snapshot nicht ändert.
+    // Die Owner-Summen folgen wie cash_card.AMOUNT dem Snapshot
+    public int snapshotTransactions(int limit, Set<Long> skippedCards) {
+        return timed("snapshotTransactions", () -> {
+            List<CashCardTransaction> open = new ArrayList<>();
+            List<String> owners = new ArrayList<>();
+            MapSqlParameterSource parameters = new MapSqlParameterSource("limit", limit)
+                    .addValue("skipped", skippedCards);
+            namedParameterJdbcTemplate.query(
+                    "SELECT SEQ, CARD_ID, OWNER, AMOUNT, CREATED_AT FROM cash_card_transaction WHERE IN_SNAPSHOT = FALSE"
+                            + (skippedCards.isEmpty() ? "" : " AND CARD_ID NOT IN (:skipped)")
+                            + " LIMIT :limit FOR UPDATE",
+                    parameters,
+                    (RowCallbackHandler) rs -> {
+                        open.add(TRANSACTION_ROW_MAPPER.mapRow(rs, open.size()));
+                        owners.add(rs.getString("OWNER"));
+                    });
+            if (open.isEmpty()) {
+                return 0;
+            }
+            int[] marked = jdbcTemplate.batchUpdate(
+                    "UPDATE cash_card_transaction SET IN_SNAPSHOT = TRUE WHERE SEQ = ? AND IN_SNAPSHOT = FALSE",
+                    open.stream().map(transaction -> new Object[]{transaction.sequence()}).toList());
+            // Neuer Snapshot pro Karte, ausgehend vom gesperrten AMOUNT
+            Map<Long, Long> snapshots = new HashMap<>();
+            namedParameterJdbcTemplate.query(
+                    "SELECT ID, AMOUNT FROM cash_card WHERE ID IN (:ids) ORDER BY ID FOR UPDATE",
+                    new MapSqlParameterSource("ids", open.stream().map(CashCardTransaction::cardId).distinct().toList()),
+                    (RowCallbackHandler) rs -> snapshots.put(rs.getLong("ID"), rs.getLong("AMOUNT")));
+            Set<Long> overflowing = new HashSet<>();
+            for (int i = 0; i < open.size(); i++) {
+                CashCardTransaction transaction = open.get(i);
+                if (marked[i] == 1 && !overflowing.contains(transaction.cardId())) {
+                    try {
+                        snapshots.merge(transaction.cardId(), transaction.amount(), Money::add);
+                    } catch (ArithmeticException e) {
+                        overflowing.add(transaction.cardId());
+                    }
+                }
+            }
+            List<Object[]> reopened = new ArrayList<>();
+            SortedMap<String, long[]> summaries = new TreeMap<>();
+            int folded = 0;
+            for (int i = 0; i < open.size(); i++) {
+                if (marked[i] != 1) {
+                    continue;
+                }
+                if (overflowing.contains(open.get(i).cardId())) {
+                    reopened.add(new Object[]{open.get(i).sequence()});
+                    continue;
+                }
+                addTo(summaries, owners.get(i), open.get(i).amount(), 0);
+                folded++;
+            }
+            if (!reopened.isEmpty()) {
+                jdbcTemplate.batchUpdate("UPDATE cash_card_transaction SET IN_SNAPSHOT = FALSE WHERE SEQ = ?", reopened);
+                skippedCards.addAll(overflowing);
+            }
+            List<Object[]> updates = new ArrayList<>();
+            snapshots.forEach((cardId, snapshot) -> {
+                if (!overflowing.contains(cardId)) {
+                    updates.add(new Object[]{snapshot, cardId});
+                }
+            });
+            jdbcTemplate.batchUpdate("UPDATE cash_card SET AMOUNT = ? WHERE ID = ?", updates);
+            addToSummaries(summaries);
+            return folded;
+        });
+    }
+
+    // Löscht übernommene Einträge, die älter als before sind. Offene Einträge bleiben immer erhalten
+    public int deleteSnapshottedTransactionsBefore(Instant before) {
+        return timed("deleteSnapshottedTransactionsBefore", () -> jdbcTemplate.update(
+                "DELETE FROM cash_card_transaction WHERE IN_SNAPSHOT = TRUE AND CREATED_AT < ?",
+                before.atOffset(ZoneOffset.UTC)));
+    }
+
+    // Primärschlüssel-Zugriff, unabhängig von der Anzahl der Karten. Leer, wenn der Owner noch nie eine Karte hatte
+    public Optional<OwnerSummary> findSummary(String owner) {
+        return timed("findSummary", () -> jdbcTemplate.query(
+                "SELECT * FROM cash_card_owner_summary WHERE OWNER = ?",
+                (rs, rowNum) -> new OwnerSummary(rs.getString("OWNER"), rs.getLong("TOTAL_AMOUNT"), rs.getLong("CARD_COUNT")),
+                owner).stream().findFirst());
+    }
+
+    // Addiert amount und cards auf die Summe des Owners und legt sie beim ersten Mal an.
+    // Läuft in der Transaktion der Änderung an cash_card, die Zeile bleibt bis zu deren Commit gesperrt
+    public void addToSummary(String owner, long amount, long cards) {
+        timed("addToSummary", () -> {
+            if (jdbcTemplate.update(ADD_TO_SUMMARY, amount, cards, owner) == 0) {
+                try {
+                    jdbcTemplate.update(
+                            "INSERT INTO cash_card_owner_summary (OWNER, TOTAL_AMOUNT, CARD_COUNT) VALUES (?, ?, ?)",
+                            owner, amount, cards);
+                } catch (DuplicateKeyException e) {
+                    // Eine parallele Transaktion hat die Summe gerade angelegt
+                    jdbcTemplate.update(ADD_TO_SUMMARY, amount, cards, owner);
+                }
+            }
+            return null;
+        });
+    }
+
+    public List<CashCardSummaryVerifier.Drift> findSummaryDrift() {
+        return timed("findSummaryDrift", () -> jdbcTemplate.query(SELECT_SUMMARY_DRIFT,
+                (rs, rowNum) -> new CashCardSummaryVerifier.Drift(rs.getString("OWNER"),
+                        rs.getLong("TOTAL_AMOUNT"), rs.getLong("CARD_COUNT"),
+                        rs.getLong("SUMMARY_AMOUNT"), rs.getLong("SUMMARY_CARDS"))));
+    }
+
+    // Berechnet die Summe eines Owners neu aus cash_card. Muss in einer Transaktion laufen: Die Summe wird zuerst
+    // gesperrt, dann gezählt. Änderungen, die vorher committet wurden, sind in der Zählung enthalten, spätere warten
+    // auf die Sperre und addieren ihr Delta danach auf die neue Summe
+    public OwnerSummary rebuildSummary(String owner) {
+        return timed("rebuildSummary", () -> {
+            addToSummary(owner, 0, 0);
+            OwnerSummary summary = jdbcTemplate.queryForObject(
+                    "SELECT COALESCE(SUM(AMOUNT), 0) AS TOTAL_AMOUNT, COUNT(*) AS CARD_COUNT FROM cash_card WHERE OWNER = ?",
+                    (rs, rowNum) -> new OwnerSummary(owner, rs.getLong("TOTAL_AMOUNT"), rs.getLong("CARD_COUNT")),
+                    owner);
+            jdbcTemplate.update("UPDATE cash_card_owner_summary SET TOTAL_AMOUNT = ?, CARD_COUNT = ? WHERE OWNER = ?",
+                    summary.totalAmount(), summary.cardCount(), owner);
+            return summary;
+        });
+    }
+
+    // Owner in fester Reihenfolge, damit sich parallele Batches nicht gegenseitig in den Summen sperren
+    private void addToSummaries(SortedMap<String, long[]> summaries) {
+        summaries.forEach((owner, summary) -> addToSummary(owner, summary[0], summary[1]));
+    }
+
+    // Gespeicherte Antwort zu einem Idempotency-Key. Leer, wenn es keine gibt oder die Transaktion des ersten
+    // Requests noch läuft
+    public Optional<IdempotentResponse> findIdempotentResponse(String owner, String idempotencyKey) {
+        return timed("findIdempotentResponse", () -> jdbcTemplate.query("""
+                        SELECT FINGERPRINT, STATUS, LOCATION, BODY FROM cash_card_idempotency
+                        WHERE OWNER = ? AND IDEMPOTENCY_KEY = ? AND STATUS IS NOT NULL""",
+                (rs, rowNum) -> new IdempotentResponse(rs.getString("FINGERPRINT"), rs.getInt("STATUS"),
+                        rs.getString("LOCATION"), rs.getString("BODY")),
+                owner, idempotencyKey).stream().findFirst());
+    }
+
+    // Reserviert den Key in der laufenden Transaktion, bevor die Änderung an cash_card geschrieben wird. Ein paralleler
+    // Request mit demselben Key (z.B. auf einer anderen Instanz) wartet auf die Zeilensperre und scheitert nach dem
+    // Commit mit DuplicateKeyException
+    public void claimIdempotencyKey(String owner, String idempotencyKey, String fingerprint) {
+        timed("claimIdempotencyKey", () -> jdbcTemplate.update(
+                "INSERT INTO cash_card_idempotency (OWNER, IDEMPOTENCY_KEY, FINGERPRINT) VALUES (?, ?, ?)",
+                owner, idempotencyKey, fingerprint));
+    }
+
+    public void storeIdempotentResponse(String owner, String idempotencyKey, IdempotentResponse response) {
+        timed("storeIdempotentResponse", () -> jdbcTemplate.update("""
+                        UPDATE cash_card_idempotency SET STATUS = ?, LOCATION = ?, BODY = ?
+                        WHERE OWNER = ? AND IDEMPOTENCY_KEY = ?""",
+                response.status(), response.location(), response.body(), owner, idempotencyKey));
+    }
+
+    // Für Antworten, die nicht gespeichert werden (z.B. 404): Der Key ist danach wieder frei
+    public void releaseIdempotencyKey(String owner, String idempotencyKey) {
+        timed("releaseIdempotencyKey", () -> jdbcTemplate.update(
+                "DELETE FROM cash_card_idempotency WHERE OWNER = ? AND IDEMPOTENCY_KEY = ?", owner, idempotencyKey));
+    }
+
+    public int deleteIdempotentResponsesBefore(Instant before) {
+        return timed("deleteIdempotentResponsesBefore", () -> jdbcTemplate.update(
+                "DELETE FROM cash_card_idempotency WHERE CREATED_AT < ?", before.atOffset(ZoneOffset.UTC)));
+    }
+
+    private static void addTo(SortedMap<String, long[]> summaries, String owner, long amount, long cards) {
+        long[] summary = summaries.computeIfAbsent(owner, key -> new long[2]);
+        summary[0] = Money.add(summary[0], amount);
+        summary[1] += cards;
+    }
+
+    // Gleiche Tags wie die Repository-Metriken von Spring Boot, damit beide in einer Zeitreihe auswertbar sind
+    private <T> T timed(String method, Supplier<T> invocation) {
+        long start = System.nanoTime();
+        String state = "SUCCESS";
+        String exception = "None";
+        try {
+            return invocation.get();
+        } catch (RuntimeException e) {
+            state = "ERROR";
+            exception = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            Timer.builder(REPOSITORY_TIMER)
+                    .tag("repository", CashCardJdbcRepository.class.getSimpleName())
+                    .tag("method", method)
+                    .tag("state", state)
+                    .tag("exception", exception)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
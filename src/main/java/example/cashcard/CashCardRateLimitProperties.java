@@ -0,0 +1,34 @@
+package example.cashcard;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.List;
+
+// Drosselung pro User (Token-Bucket) und für alle Requests zusammen (Admission), siehe RateLimitFilter.
+// capacity: so viele Requests darf ein User auf einmal schicken, refillPerSecond: so viele kommen pro Sekunde dazu.
+// rules: abweichende Limits pro Endpunkt und/oder Rolle, die erste passende Regel gilt, sonst capacity/refillPerSecond.
+// idleTimeout: so lange nach dem Auffüllen wird der Bucket eines Users verworfen
+@ConfigurationProperties("cashcard.rate-limit")
+public record CashCardRateLimitProperties(@DefaultValue("true") boolean enabled,
+                                          @DefaultValue("100") long capacity,
+                                          @DefaultValue("50") double refillPerSecond,
+                                          List<Rule> rules,
+                                          @DefaultValue("5m") Duration idleTimeout,
+                                          @DefaultValue Admission admission) {
+
+    public CashCardRateLimitProperties {
+        rules = rules == null ? List.of() : List.copyOf(rules);
+    }
+
+    // method und role sind optional, path ist ein PathPattern (z.B. /cashcards/balance/**)
+    public record Rule(String method, String path, UserRole role, long capacity, double refillPerSecond) {
+    }
+
+    // maxConcurrent: gleichzeitig bearbeitete Requests über alle User, darüber hinaus sofort 429 mit retryAfter
+    public record Admission(@DefaultValue("true") boolean enabled,
+                            @DefaultValue("200") int maxConcurrent,
+                            @DefaultValue("1s") Duration retryAfter) {
+    }
+}
@@ -0,0 +1,35 @@
+package example.cashcard;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+// Wird aus den Properties mit dem Präfix cashcard.security befüllt (siehe application.properties)
+@ConfigurationProperties("cashcard.security")
+public record CashCardSecurityProperties(@DefaultValue AuthCache authCache, @DefaultValue Token token,
+                                         @DefaultValue Metrics metrics) {
+
+    // Cache für erfolgreich geprüfte Basic-Credentials, damit BCrypt nicht bei jedem Request läuft
+    public record AuthCache(@DefaultValue("true") boolean enabled,
+                            @DefaultValue("5m") Duration ttl,
+                            @DefaultValue("10000") long maxSize) {
+    }
+
+    // Alternative zu Basic Auth: kurzlebige, signierte Tokens über POST /auth/token.
+    // Ist kein secret (Base64) gesetzt, wird beim Start ein zufälliger Schlüssel erzeugt
+    public record Token(@DefaultValue("false") boolean enabled,
+                        @DefaultValue("15m") Duration ttl,
+                        String secret) {
+    }
+
+    // Zugang für /actuator/** (Prometheus-Scrape). Der User existiert nur in der Security-Chain für den Actuator.
+    // Ohne password gibt es keinen Default: Der Actuator ist dann bis auf /actuator/health gesperrt
+    public record Metrics(@DefaultValue("metrics") String username,
+                          String password) {
+
+        public boolean enabled() {
+            return password != null && !password.isBlank();
+        }
+    }
+}
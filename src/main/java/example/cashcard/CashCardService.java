@@ -0,0 +1,153 @@
+package example.cashcard;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+// Einzelkarten-Operationen des CashCardControllers. Lesezugriffe gehen über den CashCardCache,
+// Schreibzugriffe aktualisieren ihn.
+// Mit cashcard.balance.mode=WRITE_BEHIND sammelt der WriteBehindBalanceAccumulator die Aufladungen,
+// Lesezugriffe rechnen die noch nicht geschriebenen Beträge hinzu.
+// Mit cashcard.balance.mode=JOURNAL hängt das BalanceJournal Aufladungen an, gelesen wird Snapshot plus Journal.
+// Anlegen und direkte Aufladungen passen die Owner-Summe in derselben Transaktion an
+@Service
+public class CashCardService {
+
+    private final ICashCardRepository cashCardRepository;
+    private final CashCardCache cashCardCache;
+    private final CashCardJdbcRepository jdbcRepository;
+    private final TransactionTemplate transactionTemplate;
+    // Nur im jeweiligen Modus vorhanden, sonst null
+    private final WriteBehindBalanceAccumulator writeBehind;
+    private final BalanceJournal journal;
+
+    public CashCardService(ICashCardRepository cashCardRepository, CashCardCache cashCardCache,
+                           CashCardJdbcRepository jdbcRepository, TransactionTemplate transactionTemplate,
+                           ObjectProvider<WriteBehindBalanceAccumulator> writeBehind,
+                           ObjectProvider<BalanceJournal> journal) {
+        this.cashCardRepository = cashCardRepository;
+        this.cashCardCache = cashCardCache;
+        this.jdbcRepository = jdbcRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.writeBehind = writeBehind.getIfAvailable();
+        this.journal = journal.getIfAvailable();
+    }
+
+    public Optional<CashCard> findById(long id, String owner) {
+        Supplier<Optional<CashCard>> loader = () -> cashCardCache.get(id, owner, () -> journal != null
+                ? journal.findByIdAndOwner(id, owner)
+                : cashCardRepository.findByIdAndOwner(id, owner));
+        return writeBehind == null ? loader.get() : writeBehind.read(id, loader);
+    }
+
+    // Die Karten einer Seite mit dem Kontostand wie bei findById. Im Modus JOURNAL werden Snapshot und offene Einträge
+    // in einem Statement neu gelesen, im Modus WRITE_BEHIND nur die Karten mit offenen Aufladungen über findById.
+    // Reihenfolge und Cursor der Seite folgen weiter cash_card.AMOUNT, eine Karte mit offenen Aufladungen kann daher
+    // außerhalb der Sortierung stehen
+    public List<CashCard> withCurrentAmounts(List<CashCard> cashCards, String owner) {
+        if (writeBehind != null) {
+            return cashCards.stream().map(cashCard -> withPendingTopUps(cashCard, owner)).toList();
+        }
+        if (journal == null || cashCards.isEmpty()) {
+            return cashCards;
+        }
+        Map<Long, CashCard> current = journal.findAllByIdInAndOwner(
+                        cashCards.stream().map(CashCard::getId).toList(), owner).stream()
+                .collect(Collectors.toMap(CashCard::getId, Function.identity()));
+        return cashCards.stream().map(cashCard -> current.getOrDefault(cashCard.getId(), cashCard)).toList();
+    }
+
+    // false in den Modi WRITE_BEHIND und JOURNAL: cash_card.AMOUNT kann dort hinter dem Kontostand zurückliegen
+    public boolean storesCurrentAmounts() {
+        return writeBehind == null && journal == null;
+    }
+
+    // Alle Karten des Owners für den NDJSON-Export, mit dem Kontostand wie bei findById. Im Modus WRITE_BEHIND kann
+    // AMOUNT hinter dem Kontostand zurückliegen, der Betragsfilter läuft dort erst nach dem Hinzurechnen offener
+    // Aufladungen, und die Reihenfolge folgt cash_card.AMOUNT. Gibt die Zahl der exportierten Karten zurück
+    public long export(String owner, Long minAmount, Long maxAmount, int fetchSize, Consumer<CashCard> consumer) {
+        if (journal != null) {
+            return jdbcRepository.streamWithJournalByOwner(owner, minAmount, maxAmount, fetchSize, consumer);
+        }
+        if (writeBehind == null) {
+            return jdbcRepository.streamByOwner(owner, minAmount, maxAmount, fetchSize, consumer);
+        }
+        long[] exported = {0};
+        jdbcRepository.streamByOwner(owner, null, null, fetchSize, stored -> {
+            CashCard cashCard = withPendingTopUps(stored, owner);
+            if ((minAmount == null || cashCard.getAmount() >= minAmount)
+                    && (maxAmount == null || cashCard.getAmount() <= maxAmount)) {
+                exported[0]++;
+                consumer.accept(cashCard);
+            }
+        });
+        return exported[0];
+    }
+
+    // Neu gelesen wird nur mit offenem Zähler. Die offenen Beträge auf die bereits gelesene Karte zu addieren, könnte
+    // einen inzwischen geschriebenen Flush doppelt zählen
+    private CashCard withPendingTopUps(CashCard cashCard, String owner) {
+        return writeBehind.hasPending(cashCard.getId()) ? findById(cashCard.getId(), owner).orElse(cashCard) : cashCard;
+    }
+
+    // Wirft eine ArithmeticException, wenn der neue Kontostand nicht in long passt, die Aufladung wird dann nicht gebucht
+    public Optional<CashCard> balance(long id, String owner, long amount) {
+        try {
+            return apply(id, owner, amount);
+        } catch (DataAccessException e) {
+            if (Money.isOverflow(e)) {
+                throw new ArithmeticException("Balance of cash card " + id + " would overflow");
+            }
+            throw e;
+        }
+    }
+
+    private Optional<CashCard> apply(long id, String owner, long amount) {
+        if (writeBehind != null) {
+            // Unbekannte und fremde Karten werden wie bisher mit 404 abgelehnt, bevor die Aufladung angenommen wird
+            Optional<CashCard> cashCard = findById(id, owner);
+            if (cashCard.isEmpty()) {
+                return Optional.empty();
+            }
+            if (writeBehind.add(id, owner, amount, cashCard.get().getAmount())) {
+                return findById(id, owner);
+            }
+        }
+        if (journal != null) {
+            return journal.append(id, owner, amount) ? findById(id, owner) : Optional.empty();
+        }
+        Optional<CashCard> balanced = transactionTemplate.execute(status -> {
+            Optional<CashCard> cashCard = cashCardRepository.balanceByIdAndOwner(id, owner, amount);
+            cashCard.ifPresent(card -> jdbcRepository.addToSummary(owner, amount, 0));
+            return cashCard;
+        });
+        balanced.ifPresent(cashCardCache::put);
+        return balanced;
+    }
+
+    // Für sync=true: schreibt im Modus WRITE_BEHIND die angenommenen Aufladungen sofort. false, wenn die Karte dabei
+    // nicht geschrieben werden konnte, ihre Aufladungen bleiben angenommen und werden später geschrieben.
+    // In den anderen Modi steht eine Aufladung bereits mit balance() in der Datenbank
+    public boolean awaitWritten(long id) {
+        return writeBehind == null || writeBehind.flushAndWait(id);
+    }
+
+    // save() aktualisiert den Cache über CashCardCache.onAfterSave
+    public CashCard create(CashCard cashCard, String owner) {
+        cashCard.setOwner(owner);
+        return transactionTemplate.execute(status -> {
+            CashCard saved = cashCardRepository.save(cashCard);
+            jdbcRepository.addToSummary(owner, saved.getAmount(), 1);
+            return saved;
+        });
+    }
+}
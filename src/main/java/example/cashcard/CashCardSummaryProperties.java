@@ -0,0 +1,13 @@
+package example.cashcard;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+// verifyInterval: Abstand der Prüfungen der Owner-Summen gegen cash_card, die erste läuft beim Start.
+// repair=false meldet Abweichungen nur, ohne die Summen neu zu berechnen
+@ConfigurationProperties("cashcard.summary")
+public record CashCardSummaryProperties(@DefaultValue("1h") Duration verifyInterval,
+                                        @DefaultValue("true") boolean repair) {
+}
@@ -0,0 +1,99 @@
+package example.cashcard;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Prüft die Owner-Summen (cash_card_owner_summary) regelmäßig gegen cash_card und meldet Abweichungen
+// als Warnung und im Counter cashcard.summary.drift. Mit repair=true wird die Summe jedes abweichenden Owners
+// neu berechnet. Der erste Lauf beim Start baut so auch Summen für Karten auf, die an der Anwendung vorbei
+// angelegt wurden (z.B. per SQL-Import)
+@Slf4j
+@Component
+public class CashCardSummaryVerifier implements SmartLifecycle {
+
+    static final String DRIFT_COUNTER = "cashcard.summary.drift";
+
+    private final CashCardJdbcRepository jdbcRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final OwnerShardRouter shardRouter;
+    private final CashCardSummaryProperties properties;
+    private final Counter driftCounter;
+    private volatile ScheduledExecutorService scheduler;
+    private volatile boolean running;
+
+    public CashCardSummaryVerifier(CashCardJdbcRepository jdbcRepository, TransactionTemplate transactionTemplate,
+                                   OwnerShardRouter shardRouter, CashCardSummaryProperties properties,
+                                   MeterRegistry meterRegistry) {
+        this.jdbcRepository = jdbcRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.shardRouter = shardRouter;
+        this.properties = properties;
+        this.driftCounter = Counter.builder(DRIFT_COUNTER)
+                .description("Owner summaries that did not match cash_card")
+                .register(meterRegistry);
+    }
+
+    // Gibt die gefundenen Abweichungen zurück (vor der Reparatur). Repariert wird erst nach der Suche auf allen
+    // Shards, rebuildSummary findet den Shard des Owners selbst
+    public List<Drift> verify() {
+        List<Drift> drifts = new ArrayList<>();
+        shardRouter.forEachShard(shard -> drifts.addAll(jdbcRepository.findSummaryDrift()));
+        for (Drift drift : drifts) {
+            log.warn("Summary of owner {} drifted: expected {} cents on {} cards, found {} cents on {} cards",
+                    drift.owner(), drift.expectedAmount(), drift.expectedCards(), drift.actualAmount(), drift.actualCards());
+            driftCounter.increment();
+            if (properties.repair()) {
+                transactionTemplate.execute(status -> jdbcRepository.rebuildSummary(drift.owner()));
+            }
+        }
+        return drifts;
+    }
+
+    @Override
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cashcard-summary-verifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.verifyInterval().toNanos();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                verify();
+            } catch (RuntimeException e) {
+                log.error("Summary verification failed", e);
+            }
+        }, 0, interval, TimeUnit.NANOSECONDS);
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // expected: aus cash_card berechnet, actual: in cash_card_owner_summary gespeichert. Beträge in Cent
+    public record Drift(String owner, long expectedAmount, long expectedCards, long actualAmount, long actualCards) {
+    }
+}
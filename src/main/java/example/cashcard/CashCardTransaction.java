@@ -0,0 +1,7 @@
+package example.cashcard;
+
+import java.time.Instant;
+
+// Ein Eintrag im Journal der Aufladungen (cash_card_transaction). amount in Cent, in JSON als Dezimalzahl
+public record CashCardTransaction(long sequence, long cardId, @MoneyAmount long amount, Instant createdAt) {
+}
@@ -0,0 +1,10 @@
+package example.cashcard;
+
+// Was sich an einer Karte in der Antwort ändern kann: VERSION (bei jedem UPDATE hochgezählt) und der angezeigte
+// Betrag in Cent. Der Betrag ist nötig, weil er sich in den Modi WRITE_BEHIND und JOURNAL ohne UPDATE ändert
+public record CashCardVersion(long id, long version, long amount) {
+
+    public static CashCardVersion of(CashCard cashCard) {
+        return new CashCardVersion(cashCard.getId(), cashCard.getVersion(), cashCard.getAmount());
+    }
+}
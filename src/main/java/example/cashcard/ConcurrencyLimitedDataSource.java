@@ -0,0 +1,90 @@
+package example.cashcard;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Hält ein Permit des DatabaseConcurrencyLimiter von getConnection() bis close() der Verbindung.
+// Begrenzt werden damit offene Verbindungen und nicht einzelne Repository-Aufrufe: Eine Transaktion über mehrere
+// Aufrufe (z.B. CashCardBatchService) belegt genau ein Permit, und ein Aufruf innerhalb einer Transaktion kann
+// nicht auf ein zweites Permit warten und sich so selbst blockieren
+public class ConcurrencyLimitedDataSource extends DelegatingDataSource {
+
+    private final ObjectProvider<DatabaseConcurrencyLimiter> limiterProvider;
+    // Erst beim ersten getConnection() aufgelöst, damit die DataSource nicht auf die MeterRegistry warten muss
+    private volatile DatabaseConcurrencyLimiter limiter;
+
+    public ConcurrencyLimitedDataSource(DataSource target, ObjectProvider<DatabaseConcurrencyLimiter> limiterProvider) {
+        super(target);
+        this.limiterProvider = limiterProvider;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        DatabaseConcurrencyLimiter limiter = limiter();
+        limiter.acquire();
+        try {
+            return limited(obtainTargetDataSource().getConnection(), limiter);
+        } catch (SQLException | RuntimeException e) {
+            limiter.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        DatabaseConcurrencyLimiter limiter = limiter();
+        limiter.acquire();
+        try {
+            return limited(obtainTargetDataSource().getConnection(username, password), limiter);
+        } catch (SQLException | RuntimeException e) {
+            limiter.release();
+            throw e;
+        }
+    }
+
+    private DatabaseConcurrencyLimiter limiter() {
+        DatabaseConcurrencyLimiter current = limiter;
+        if (current == null) {
+            current = limiterProvider.getObject();
+            limiter = current;
+        }
+        return current;
+    }
+
+    // Gibt das Permit beim ersten close() zurück, weitere close() (erlaubt laut JDBC) geben nichts mehr frei
+    private static Connection limited(Connection target, DatabaseConcurrencyLimiter limiter) {
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(ConnectionProxy.class.getClassLoader(),
+                new Class<?>[]{ConnectionProxy.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "getTargetConnection" -> target;
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "toString" -> "Limited " + target;
+                    case "close" -> {
+                        try {
+                            target.close();
+                        } finally {
+                            if (released.compareAndSet(false, true)) {
+                                limiter.release();
+                            }
+                        }
+                        yield null;
+                    }
+                    default -> {
+                        try {
+                            yield method.invoke(target, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getTargetException();
+                        }
+                    }
+                });
+    }
+}
@@ -0,0 +1,75 @@
+package example.cashcard;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Begrenzt die gleichzeitig offenen Datenbankverbindungen (siehe ConcurrencyLimitedDataSource).
+// Faire Semaphore: Wartende kommen in der Reihenfolge ihres Eintreffens dran. Auf virtuellen Threads kostet das
+// Warten nur den Stack des virtuellen Threads, so können zehntausende Requests warten, ohne dass H2 mehr als
+// maxConcurrent Sessions gleichzeitig bedient. Metriken: cashcard.db.limiter.wait (Wartezeit, outcome=acquired|timeout),
+// cashcard.db.limiter.queued (Wartende) und cashcard.db.limiter.active (vergebene Permits)
+@Component
+@ConditionalOnProperty(name = "cashcard.database.limiter.enabled", havingValue = "true", matchIfMissing = true)
+public class DatabaseConcurrencyLimiter {
+
+    static final String WAIT_TIMER = "cashcard.db.limiter.wait";
+
+    private final Semaphore permits;
+    private final int maxConcurrent;
+    private final long acquireTimeoutNanos;
+    private final Timer acquired;
+    private final Timer timedOut;
+
+    public DatabaseConcurrencyLimiter(CashCardDatabaseProperties properties, MeterRegistry meterRegistry) {
+        CashCardDatabaseProperties.Limiter limiter = properties.limiter();
+        this.maxConcurrent = limiter.maxConcurrent();
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.acquireTimeoutNanos = limiter.acquireTimeout().toNanos();
+        this.acquired = waitTimer("acquired", meterRegistry);
+        this.timedOut = waitTimer("timeout", meterRegistry);
+        Gauge.builder("cashcard.db.limiter.queued", permits, Semaphore::getQueueLength)
+                .description("Requests waiting for a database permit")
+                .register(meterRegistry);
+        Gauge.builder("cashcard.db.limiter.active", permits, semaphore -> maxConcurrent - semaphore.availablePermits())
+                .description("Database permits in use")
+                .register(meterRegistry);
+    }
+
+    // tryAcquire() ohne Timeout würde auch bei fairer Semaphore an Wartenden vorbeiziehen, daher immer mit Timeout
+    public void acquire() throws SQLException {
+        long start = System.nanoTime();
+        boolean success;
+        try {
+            success = permits.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a database permit", e);
+        }
+        long waited = System.nanoTime() - start;
+        if (!success) {
+            timedOut.record(waited, TimeUnit.NANOSECONDS);
+            throw new SQLTransientConnectionException("No database permit available after "
+                    + TimeUnit.NANOSECONDS.toMillis(acquireTimeoutNanos) + " ms (" + maxConcurrent + " in use)");
+        }
+        acquired.record(waited, TimeUnit.NANOSECONDS);
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    private static Timer waitTimer(String outcome, MeterRegistry meterRegistry) {
+        return Timer.builder(WAIT_TIMER)
+                .description("Time spent waiting for a database permit")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+}
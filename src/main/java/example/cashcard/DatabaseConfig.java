@@ -0,0 +1,112 @@
+package example.cashcard;
+
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.function.UnaryOperator;
+
+@Configuration
+public class DatabaseConfig {
+
+    // Legt den DatabaseConcurrencyLimiter vor jede DataSource, ohne die Auto-Konfiguration der DataSource zu ersetzen.
+    // static, damit der BeanPostProcessor vor allen anderen Beans dieser Klasse erzeugt werden kann.
+    // Läuft als letzter: Mit Replikaten begrenzt ein Permit die Verbindung, egal zu welchem Knoten sie geht
+    @Bean
+    @ConditionalOnProperty(name = "cashcard.database.limiter.enabled", havingValue = "true", matchIfMissing = true)
+    static WrappingPostProcessor concurrencyLimitingDataSourcePostProcessor(
+            ObjectProvider<DatabaseConcurrencyLimiter> limiterProvider) {
+        return new WrappingPostProcessor(Ordered.LOWEST_PRECEDENCE, ConcurrencyLimitedDataSource.class,
+                dataSource -> new ConcurrencyLimitedDataSource(dataSource, limiterProvider));
+    }
+
+    // Macht die DataSource zur primären DataSource, Lesezugriffe gehen an die Replikate (siehe ReadReplicaRouter)
+    @Bean
+    @ConditionalOnProperty(name = "cashcard.database.replicas.nodes[0].url")
+    static WrappingPostProcessor replicaRoutingDataSourcePostProcessor(ObjectProvider<ReadReplicaRouter> routerProvider) {
+        return new WrappingPostProcessor(Ordered.HIGHEST_PRECEDENCE, ReplicaRoutingDataSource.class,
+                dataSource -> new ReplicaRoutingDataSource(dataSource, routerProvider));
+    }
+
+    // Macht die DataSource zu Shard 0, Verbindungen gehen an den Shard des Owners (siehe OwnerShardRouter).
+    // Der LazyConnectionDataSourceProxy holt die Verbindung einer Transaktion erst beim ersten Statement
+    @Bean
+    @ConditionalOnProperty(name = "cashcard.database.shards.nodes[0].url")
+    static WrappingPostProcessor shardRoutingDataSourcePostProcessor(ObjectProvider<OwnerShardRouter> routerProvider) {
+        return new WrappingPostProcessor(Ordered.HIGHEST_PRECEDENCE, LazyConnectionDataSourceProxy.class, dataSource -> {
+            LazyConnectionDataSourceProxy proxy = new LazyConnectionDataSourceProxy();
+            proxy.setTargetDataSource(new ShardRoutingDataSource(dataSource, routerProvider));
+            // Standardwerte von H2, sonst würde der Proxy schon hier eine Verbindung öffnen, um sie abzufragen
+            proxy.setDefaultAutoCommit(true);
+            proxy.setDefaultTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            proxy.afterPropertiesSet();
+            return proxy;
+        });
+    }
+
+    // Bindet jeden Repository-Aufruf an den Shard des Owners. Als erster Advice, damit der Shard schon vor einer
+    // Transaktion des Repositories (z.B. balanceByIdAndOwner) gebunden ist
+    @Bean
+    @ConditionalOnProperty(name = "cashcard.database.shards.nodes[0].url")
+    static BeanPostProcessor shardRoutingRepositoryPostProcessor(ObjectProvider<OwnerShardRouter> routerProvider) {
+        ShardRoutingInterceptor interceptor = new ShardRoutingInterceptor(routerProvider);
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!(bean instanceof ICashCardRepository) && !(bean instanceof CashCardJdbcRepository)) {
+                    return bean;
+                }
+                if (bean instanceof Advised advised && !advised.isFrozen()) {
+                    advised.addAdvice(0, interceptor);
+                    return bean;
+                }
+                ProxyFactory proxyFactory = new ProxyFactory(bean);
+                proxyFactory.setProxyTargetClass(bean instanceof CashCardJdbcRepository);
+                proxyFactory.addAdvice(interceptor);
+                return proxyFactory.getProxy();
+            }
+        };
+    }
+
+    // Asynchrone Requests (z.B. der Export) laufen auf dem applicationTaskExecutor und lesen mit der Route des Requests
+    @Bean
+    @ConditionalOnProperty(name = "cashcard.database.replicas.nodes[0].url")
+    TaskDecorator replicaRouteTaskDecorator() {
+        return ReadReplicaRouter::withCurrentRoute;
+    }
+
+    // Der Rückgabetyp der @Bean-Methoden muss Ordered erkennen lassen, sonst sortiert Spring die BeanPostProcessors nicht
+    static final class WrappingPostProcessor implements BeanPostProcessor, Ordered {
+        private final int order;
+        private final Class<? extends DataSource> wrapperType;
+        private final UnaryOperator<DataSource> wrapper;
+
+        private WrappingPostProcessor(int order, Class<? extends DataSource> wrapperType, UnaryOperator<DataSource> wrapper) {
+            this.order = order;
+            this.wrapperType = wrapperType;
+            this.wrapper = wrapper;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (bean instanceof DataSource dataSource && !wrapperType.isInstance(bean)) {
+                return wrapper.apply(dataSource);
+            }
+            return bean;
+        }
+
+        @Override
+        public int getOrder() {
+            return order;
+        }
+    }
+}
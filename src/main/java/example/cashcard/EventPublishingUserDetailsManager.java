@@ -0,0 +1,43 @@
+package example.cashcard;
+
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
+
+// InMemoryUserDetailsManager, der bei jeder Änderung an einem User ein UserCredentialsChangedEvent veröffentlicht
+public class EventPublishingUserDetailsManager extends InMemoryUserDetailsManager {
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    public EventPublishingUserDetailsManager(ApplicationEventPublisher eventPublisher, UserDetails... users) {
+        super(users);
+        this.eventPublisher = eventPublisher;
+    }
+
+    @Override
+    public void updateUser(UserDetails user) {
+        super.updateUser(user);
+        eventPublisher.publishEvent(new UserCredentialsChangedEvent(user.getUsername()));
+    }
+
+    @Override
+    public void deleteUser(String username) {
+        super.deleteUser(username);
+        eventPublisher.publishEvent(new UserCredentialsChangedEvent(username));
+    }
+
+    @Override
+    public void changePassword(String oldPassword, String newPassword) {
+        super.changePassword(oldPassword, newPassword);
+        eventPublisher.publishEvent(new UserCredentialsChangedEvent(
+                SecurityContextHolder.getContext().getAuthentication().getName()));
+    }
+
+    @Override
+    public UserDetails updatePassword(UserDetails user, String newPassword) {
+        UserDetails updated = super.updatePassword(user, newPassword);
+        eventPublisher.publishEvent(new UserCredentialsChangedEvent(user.getUsername()));
+        return updated;
+    }
+}
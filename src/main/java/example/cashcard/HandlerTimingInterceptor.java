@@ -0,0 +1,45 @@
+package example.cashcard;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.util.concurrent.TimeUnit;
+
+// Misst nur die Zeit im Handler (inklusive Datenbank), ohne Security-Filter und Authentifizierung.
+// Zusammen mit http.server.requests (gesamter Request), cashcard.authentication und
+// spring.data.repository.invocations lässt sich so aufteilen, wo die Zeit eines Requests verbracht wird
+public class HandlerTimingInterceptor implements HandlerInterceptor {
+
+    static final String HANDLER_TIMER = "cashcard.handler";
+    private static final String START_ATTRIBUTE = HandlerTimingInterceptor.class.getName() + ".start";
+
+    private final MeterRegistry meterRegistry;
+
+    public HandlerTimingInterceptor(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (!(handler instanceof HandlerMethod handlerMethod) || !(request.getAttribute(START_ATTRIBUTE) instanceof Long start)) {
+            return;
+        }
+        // status unterscheidet z.B. 200 von 404 bei findById
+        Timer.builder(HANDLER_TIMER)
+                .description("Time spent in CashCard request handlers")
+                .tag("handler", handlerMethod.getMethod().getName())
+                .tag("status", String.valueOf(response.getStatus()))
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+}
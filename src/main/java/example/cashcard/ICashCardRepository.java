@@ -1,10 +1,12 @@
 package example.cashcard;
 
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jdbc.repository.query.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.List;
 import java.util.Optional;
 
 public interface ICashCardRepository extends CrudRepository<CashCard, Long>, PagingAndSortingRepository<CashCard, Long> {
@@ -12,5 +14,36 @@ public interface ICashCardRepository extends CrudRepository<CashCard, Long>, Pag
     // Diese Methoden werden als "Query Methods" bezeichnet
     Optional<CashCard> findByIdAndOwner(Long id, String owner);
 
-    Page<CashCard> findByOwner(String owner, PageRequest pageRequest);
+    // List statt Page: Für eine Page müsste Spring Data zusätzlich ein COUNT ausführen, das nur selten gebraucht wird
+    List<CashCard> findByOwner(String owner, Pageable pageable);
+
+    long countByOwner(String owner);
+
+    // Keyset-Pagination: Statt OFFSET wird über den Index (owner, amount, id) direkt hinter den letzten Eintrag
+    // der vorherigen Seite gesprungen. Die Kosten hängen damit nicht mehr davon ab, wie tief man blättert.
+    // Die Bedingung "amount >= :amount" grenzt den Index-Bereich ein, der Rest entscheidet bei gleichem amount über die id
+    @Query("""
+            SELECT * FROM cash_card
+            WHERE owner = :owner AND amount >= :amount AND (amount > :amount OR id > :id)
+            ORDER BY amount ASC, id ASC
+            LIMIT :limit""")
+    List<CashCard> findByOwnerAfter(String owner, long amount, long id, int limit);
+
+    @Query("""
+            SELECT * FROM cash_card
+            WHERE owner = :owner AND amount <= :amount AND (amount < :amount OR id < :id)
+            ORDER BY amount DESC, id DESC
+            LIMIT :limit""")
+    List<CashCard> findByOwnerBefore(String owner, long amount, long id, int limit);
+
+    // Erhöht den Betrag atomar in einem einzigen Statement (kein Read-Modify-Write über zwei Round Trips).
+    // FINAL TABLE ist eine H2-Erweiterung und liefert die Zeile so zurück, wie sie nach dem UPDATE aussieht.
+    // Gehört die Karte nicht dem Owner oder existiert sie nicht, wird keine Zeile geändert und das Optional ist leer
+    @Transactional
+    @Query("""
+            SELECT * FROM FINAL TABLE (
+                UPDATE cash_card SET amount = amount + :amount, version = version + 1
+                WHERE id = :id AND owner = :owner
+            )""")
+    Optional<CashCard> balanceByIdAndOwner(Long id, String owner, long amount);
 }
@@ -0,0 +1,216 @@
+package example.cashcard;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+// Idempotency-Key für POST /cashcards und POST /cashcards/balance/{id}: Wiederholt ein Client einen Request mit
+// demselben Key (z.B. nach einem Timeout), bekommt er die Antwort des ersten Requests, ohne dass cash_card noch einmal
+// geändert wird. Die Keys gelten pro Owner.
+// Der erste Request reserviert den Key in cash_card_idempotency und speichert dort seine Antwort, beides in der
+// Transaktion der Änderung: Entweder stehen Änderung und Antwort in der Datenbank oder keins von beiden.
+// Gespeichert werden nur erfolgreiche Antworten (2xx), nach einem 404 oder Fehler ist der Key wieder frei.
+// Im Speicher liegt pro Key ein Future (Caffeine, maxSize und ttl). Parallele Requests mit demselben Key warten darauf
+// bis zu waitTimeout (danach 409), statt den Request ein zweites Mal auszuführen. Auf anderen Instanzen schützt die
+// Reservierung in der Datenbank: Der zweite Request scheitert am Primärschlüssel, seine Transaktion wird zurückgerollt
+// und er liefert die gespeicherte Antwort.
+// Derselbe Key mit einem anderen Request (andere Karte oder anderer Betrag) wird mit 422 abgelehnt.
+// Im Modus WRITE_BEHIND ist die Aufladung beim Commit nur angenommen, nicht geschrieben (wie ohne Key)
+@Slf4j
+@Service
+public class IdempotencyService implements SmartLifecycle {
+
+    static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    static final String REPLAYED_HEADER = "Idempotent-Replayed";
+    static final String REPLAY_COUNTER = "cashcard.idempotency.replays";
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final CashCardJdbcRepository jdbcRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final OwnerShardRouter shardRouter;
+    private final ObjectMapper objectMapper;
+    private final CashCardIdempotencyProperties properties;
+    private final Cache<Key, CompletableFuture<IdempotentResponse>> responses;
+    private final Counter replays;
+    private volatile ScheduledExecutorService purger;
+    private volatile boolean running;
+
+    public IdempotencyService(CashCardJdbcRepository jdbcRepository, TransactionTemplate transactionTemplate,
+                              OwnerShardRouter shardRouter, ObjectMapper objectMapper,
+                              CashCardIdempotencyProperties properties, MeterRegistry meterRegistry) {
+        this.jdbcRepository = jdbcRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.shardRouter = shardRouter;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+        this.responses = Caffeine.newBuilder()
+                .expireAfterWrite(properties.ttl())
+                .maximumSize(properties.maxSize())
+                .build();
+        this.replays = Counter.builder(REPLAY_COUNTER)
+                .description("Requests answered with the stored response of an earlier request with the same Idempotency-Key")
+                .register(meterRegistry);
+    }
+
+    // fingerprint: beschreibt den Request (Endpunkt, Karte, Betrag), der Owner ist bereits Teil des Keys
+    public ResponseEntity<CashCard> execute(String owner, String idempotencyKey, String fingerprint,
+                                            Supplier<ResponseEntity<CashCard>> action) {
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            return ResponseEntity.badRequest().build();
+        }
+        Key key = new Key(owner, idempotencyKey);
+        while (true) {
+            CompletableFuture<IdempotentResponse> inFlight = new CompletableFuture<>();
+            CompletableFuture<IdempotentResponse> first = responses.asMap().putIfAbsent(key, inFlight);
+            if (first == null) {
+                return executeFirst(key, fingerprint, action, inFlight);
+            }
+            IdempotentResponse stored;
+            try {
+                stored = first.get(properties.waitTimeout().toNanos(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).build();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return ResponseEntity.status(HttpStatus.CONFLICT).build();
+            } catch (ExecutionException e) {
+                // Kommt nicht vor, der erste Request beendet das Future immer mit einer Antwort oder null
+                throw new IllegalStateException(e.getCause());
+            }
+            if (stored != null) {
+                return replay(stored, fingerprint);
+            }
+            // Der erste Request hat nichts gespeichert (404 oder Fehler) und den Key freigegeben: selbst ausführen
+        }
+    }
+
+    private ResponseEntity<CashCard> executeFirst(Key key, String fingerprint, Supplier<ResponseEntity<CashCard>> action,
+                                                  CompletableFuture<IdempotentResponse> inFlight) {
+        IdempotentResponse stored = null;
+        try {
+            // Nach einem Neustart oder wenn der Key aus dem Speicher verdrängt wurde
+            Optional<IdempotentResponse> persisted = jdbcRepository.findIdempotentResponse(key.owner(), key.idempotencyKey());
+            if (persisted.isPresent()) {
+                stored = persisted.get();
+                return replay(stored, fingerprint);
+            }
+            Outcome outcome;
+            try {
+                outcome = transactionTemplate.execute(status -> {
+                    jdbcRepository.claimIdempotencyKey(key.owner(), key.idempotencyKey(), fingerprint);
+                    ResponseEntity<CashCard> response = action.get();
+                    if (!response.getStatusCode().is2xxSuccessful()) {
+                        jdbcRepository.releaseIdempotencyKey(key.owner(), key.idempotencyKey());
+                        return new Outcome(response, null);
+                    }
+                    IdempotentResponse toStore = toStored(fingerprint, response);
+                    jdbcRepository.storeIdempotentResponse(key.owner(), key.idempotencyKey(), toStore);
+                    return new Outcome(response, toStore);
+                });
+            } catch (DuplicateKeyException e) {
+                // Ein Request mit demselben Key auf einer anderen Instanz war schneller
+                stored = jdbcRepository.findIdempotentResponse(key.owner(), key.idempotencyKey()).orElseThrow(() -> e);
+                return replay(stored, fingerprint);
+            }
+            stored = outcome.stored();
+            return outcome.response();
+        } finally {
+            if (stored == null) {
+                responses.asMap().remove(key, inFlight);
+            }
+            inFlight.complete(stored);
+        }
+    }
+
+    private ResponseEntity<CashCard> replay(IdempotentResponse stored, String fingerprint) {
+        if (!stored.fingerprint().equals(fingerprint)) {
+            return ResponseEntity.unprocessableEntity().build();
+        }
+        replays.increment();
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(stored.status()).header(REPLAYED_HEADER, "true");
+        if (stored.location() != null) {
+            response.location(URI.create(stored.location()));
+        }
+        try {
+            return response.body(stored.body() == null ? null : objectMapper.readValue(stored.body(), CashCard.class));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private IdempotentResponse toStored(String fingerprint, ResponseEntity<CashCard> response) {
+        URI location = response.getHeaders().getLocation();
+        try {
+            return new IdempotentResponse(fingerprint, response.getStatusCode().value(),
+                    location == null ? null : location.toString(),
+                    response.getBody() == null ? null : objectMapper.writeValueAsString(response.getBody()));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Löscht gespeicherte Antworten älter als ttl auf allen Shards
+    public int purge() {
+        Instant before = Instant.now().minus(properties.ttl());
+        int[] deleted = new int[1];
+        shardRouter.forEachShard(shard -> deleted[0] += jdbcRepository.deleteIdempotentResponsesBefore(before));
+        return deleted[0];
+    }
+
+    @Override
+    public void start() {
+        purger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cashcard-idempotency-purge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.purgeInterval().toNanos();
+        purger.scheduleWithFixedDelay(() -> {
+            try {
+                purge();
+            } catch (RuntimeException e) {
+                log.error("Purging idempotent responses failed", e);
+            }
+        }, interval, interval, TimeUnit.NANOSECONDS);
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        purger.shutdown();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private record Key(String owner, String idempotencyKey) {
+    }
+
+    private record Outcome(ResponseEntity<CashCard> response, IdempotentResponse stored) {
+    }
+}
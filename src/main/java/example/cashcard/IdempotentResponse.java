@@ -0,0 +1,5 @@
+package example.cashcard;
+
+// Gespeicherte Antwort eines Requests mit Idempotency-Key (cash_card_idempotency). body ist das JSON der Antwort
+public record IdempotentResponse(String fingerprint, int status, String location, String body) {
+}
@@ -0,0 +1,80 @@
+package example.cashcard;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import org.springframework.dao.DataAccessException;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+
+// Beträge werden intern als long in Cent geführt (123.45 -> 12345). Rechnen mit long ist exakt und erzeugt
+// keine Objekte, anders als double (Rundungsfehler) oder BigDecimal (eine Allokation pro Operation).
+// Nur an den Rändern (JSON, Query-Parameter) wird in Dezimalzahlen umgerechnet
+public final class Money {
+
+    static final int SCALE = 2;
+    private static final String NUMERIC_VALUE_OUT_OF_RANGE = "22003";
+
+    private Money() {
+    }
+
+    // Wirft eine ArithmeticException bei Überlauf, statt still ins Negative zu kippen
+    public static long add(long cents, long delta) {
+        return Math.addExact(cents, delta);
+    }
+
+    // true, wenn die Datenbank eine Rechnung mit Beträgen wegen Überlauf abgelehnt hat (z.B. amount = amount + ?)
+    public static boolean isOverflow(DataAccessException e) {
+        return e.getMostSpecificCause() instanceof SQLException sqlException
+                && NUMERIC_VALUE_OUT_OF_RANGE.equals(sqlException.getSQLState());
+    }
+
+    // Wirft eine ArithmeticException bei mehr als zwei Nachkommastellen oder wenn der Betrag nicht in long passt
+    public static long toCents(BigDecimal amount) {
+        return amount.movePointRight(SCALE).longValueExact();
+    }
+
+    public static BigDecimal toDecimal(long cents) {
+        return BigDecimal.valueOf(cents, SCALE);
+    }
+
+    // Schreibt Cent als Dezimalzahl, damit das JSON-Format gleich bleibt ("amount": 123.45)
+    static class Serializer extends StdSerializer<Long> {
+
+        Serializer() {
+            super(Long.class);
+        }
+
+        @Override
+        public void serialize(Long cents, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeNumber(toDecimal(cents));
+        }
+    }
+
+    // Liest Dezimalzahlen (auch als String) und rechnet sie exakt in Cent um
+    static class Deserializer extends StdScalarDeserializer<Long> {
+
+        Deserializer() {
+            super(Long.class);
+        }
+
+        @Override
+        public Long deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            try {
+                BigDecimal amount = parser.currentToken() == JsonToken.VALUE_STRING
+                        ? new BigDecimal(parser.getText().trim())
+                        : parser.getDecimalValue();
+                return toCents(amount);
+            } catch (ArithmeticException | NumberFormatException e) {
+                return (Long) context.handleWeirdStringValue(Long.class, parser.getText(),
+                        "not a monetary amount with at most %d decimal places", SCALE);
+            }
+        }
+    }
+}
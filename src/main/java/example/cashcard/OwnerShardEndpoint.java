@@ -0,0 +1,49 @@
+package example.cashcard;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+// /actuator/shards: Owner pro Shard (GET), einen Owner verschieben (POST /actuator/shards/{owner} {"shard": 1})
+// und alle Owner auf ihren Ring-Shard verschieben (POST /actuator/shards).
+// Nicht in management.endpoints.web.exposure.include, muss für eine Umverteilung ausdrücklich freigegeben werden
+@Component
+@Endpoint(id = "shards")
+@ConditionalOnProperty(name = "cashcard.database.shards.nodes[0].url")
+public class OwnerShardEndpoint {
+
+    private final OwnerShardRouter router;
+    private final OwnerShardRebalancer rebalancer;
+
+    public OwnerShardEndpoint(OwnerShardRouter router, OwnerShardRebalancer rebalancer) {
+        this.router = router;
+        this.rebalancer = rebalancer;
+    }
+
+    @ReadOperation
+    public Map<Integer, ShardOwners> shards() {
+        Map<Integer, ShardOwners> shards = new TreeMap<>();
+        router.owners().forEach((shard, owners) -> shards.put(shard, new ShardOwners(owners.size(), owners)));
+        return shards;
+    }
+
+    @WriteOperation
+    public Map<String, Integer> move(@Selector String owner, int shard) {
+        return Map.of("shard", shard, "movedCards", rebalancer.move(owner, shard));
+    }
+
+    @WriteOperation
+    public Map<String, Integer> rebalance() {
+        return Map.of("movedOwners", rebalancer.rebalance());
+    }
+
+    public record ShardOwners(int ownerCount, Collection<String> owners) {
+    }
+}
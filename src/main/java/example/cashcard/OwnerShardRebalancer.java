@@ -0,0 +1,128 @@
+package example.cashcard;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+
+// Verschiebt Owner im laufenden Betrieb auf einen anderen Shard, z.B. nachdem ein Shard hinzugekommen ist.
+// Während des Verschiebens hält move() die Schreibsperre des Owners: Requests und Flushes für diesen Owner warten,
+// alle anderen Owner laufen weiter. Ablauf:
+// 1. Karten (mit offenen Journal-Einträgen verrechnet), Verlauf und gespeicherte Idempotency-Antworten vom alten
+//    Shard lesen
+// 2. in einer Transaktion auf den neuen Shard schreiben, die Karten behalten id und Version. Dazu kommt eine Zeile in
+//    cash_card_owner_move mit dem alten Shard
+// 3. die Zeile auf COMMITTED setzen und den Owner im OwnerShardRouter umhängen. Ab hier gilt der neue Shard
+// 4. in einer Transaktion vom alten Shard löschen, danach die Zeile in cash_card_owner_move
+// Bricht move() zwischen 2. und 4. ab, liegt der Owner auf beiden Shards. Ohne COMMITTED bleibt der OwnerShardRouter
+// beim alten Shard, ein erneutes move() überschreibt die Kopie. Ein Neustart räumt den jeweils ungültigen Shard.
+// Der Verlauf bekommt auf dem neuen Shard neue SEQs (Reihenfolge bleibt), Cursor auf den Verlauf gelten danach nicht mehr
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "cashcard.database.shards.nodes[0].url")
+public class OwnerShardRebalancer {
+
+    static final String MOVE_COUNTER = "cashcard.shard.moves";
+
+    private final OwnerShardRouter router;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Counter moves;
+
+    public OwnerShardRebalancer(OwnerShardRouter router, JdbcTemplate jdbcTemplate,
+                                TransactionTemplate transactionTemplate, MeterRegistry meterRegistry) {
+        this.router = router;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.moves = Counter.builder(MOVE_COUNTER)
+                .description("Owners moved to another shard")
+                .register(meterRegistry);
+    }
+
+    // Anzahl der verschobenen Karten, 0 wenn der Owner schon auf target liegt
+    public int move(String owner, int target) {
+        if (target < 0 || target >= router.shardCount()) {
+            throw new IllegalArgumentException("Unknown shard " + target);
+        }
+        Lock lock = router.moveLock(owner).writeLock();
+        lock.lock();
+        try {
+            int source = router.shardOf(owner);
+            if (source == target) {
+                return 0;
+            }
+            List<CashCard> cashCards = router.onShard(source, () -> jdbcTemplate.query(
+                    CashCardJdbcRepository.SELECT_WITH_JOURNAL + "WHERE c.OWNER = ? ORDER BY c.ID",
+                    CashCardJdbcRepository.CASH_CARD_ROW_MAPPER, owner));
+            List<Object[]> history = router.onShard(source, () -> jdbcTemplate.query(
+                    "SELECT CARD_ID, AMOUNT, CREATED_AT FROM cash_card_transaction WHERE OWNER = ? ORDER BY SEQ",
+                    (rs, rowNum) -> new Object[]{rs.getLong("CARD_ID"), owner, rs.getLong("AMOUNT"), rs.getObject("CREATED_AT")},
+                    owner));
+            List<Object[]> idempotentResponses = router.onShard(source, () -> jdbcTemplate.query("""
+                            SELECT IDEMPOTENCY_KEY, FINGERPRINT, STATUS, LOCATION, BODY, CREATED_AT FROM cash_card_idempotency
+                            WHERE OWNER = ? AND STATUS IS NOT NULL""",
+                    (rs, rowNum) -> new Object[]{owner, rs.getString("IDEMPOTENCY_KEY"), rs.getString("FINGERPRINT"),
+                            rs.getInt("STATUS"), rs.getString("LOCATION"), rs.getString("BODY"), rs.getObject("CREATED_AT")},
+                    owner));
+            router.onShard(target, () -> transactionTemplate.execute(status -> {
+                router.deleteOwner(owner);
+                List<Object[]> rows = new ArrayList<>(cashCards.size());
+                long total = 0;
+                for (CashCard cashCard : cashCards) {
+                    rows.add(new Object[]{cashCard.getId(), cashCard.getAmount(), owner, cashCard.getVersion()});
+                    total = Money.add(total, cashCard.getAmount());
+                }
+                jdbcTemplate.batchUpdate("INSERT INTO cash_card (ID, AMOUNT, OWNER, VERSION) VALUES (?, ?, ?, ?)", rows);
+                // Die Beträge sind bereits in AMOUNT enthalten, der Verlauf kommt daher als übernommen an
+                jdbcTemplate.batchUpdate("""
+                        INSERT INTO cash_card_transaction (CARD_ID, OWNER, AMOUNT, CREATED_AT, IN_SNAPSHOT)
+                        VALUES (?, ?, ?, ?, TRUE)""", history);
+                jdbcTemplate.update("""
+                        MERGE INTO cash_card_owner_summary (OWNER, TOTAL_AMOUNT, CARD_COUNT) KEY (OWNER)
+                        VALUES (?, ?, ?)""", owner, total, cashCards.size());
+                jdbcTemplate.batchUpdate("""
+                        INSERT INTO cash_card_idempotency (OWNER, IDEMPOTENCY_KEY, FINGERPRINT, STATUS, LOCATION, BODY, CREATED_AT)
+                        VALUES (?, ?, ?, ?, ?, ?, ?)""", idempotentResponses);
+                jdbcTemplate.update("INSERT INTO cash_card_owner_move (OWNER, SOURCE_SHARD) VALUES (?, ?)", owner, source);
+                return null;
+            }));
+            router.onShard(target, () -> jdbcTemplate.update(
+                    "UPDATE cash_card_owner_move SET COMMITTED = TRUE WHERE OWNER = ?", owner));
+            router.relocate(owner, target);
+            router.onShard(source, () -> transactionTemplate.execute(status -> {
+                router.deleteOwner(owner);
+                return null;
+            }));
+            router.onShard(target, () -> jdbcTemplate.update("DELETE FROM cash_card_owner_move WHERE OWNER = ?", owner));
+            moves.increment();
+            log.info("Moved {} cash cards of owner {} from shard {} to shard {}", cashCards.size(), owner, source, target);
+            return cashCards.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Verschiebt alle Owner, die nicht auf ihrem Ring-Shard liegen. Gibt die Anzahl der verschobenen Owner zurück
+    public int rebalance() {
+        int moved = 0;
+        Set<String> owners = new TreeSet<>();
+        router.owners().values().forEach(owners::addAll);
+        for (String owner : owners) {
+            int target = router.ringShard(owner);
+            if (router.shardOf(owner) != target) {
+                move(owner, target);
+                moved++;
+            }
+        }
+        return moved;
+    }
+}
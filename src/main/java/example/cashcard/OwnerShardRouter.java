@@ -0,0 +1,322 @@
+package example.cashcard;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.boot.jdbc.init.DataSourceScriptDatabaseInitializer;
+import org.springframework.boot.sql.init.DatabaseInitializationMode;
+import org.springframework.boot.sql.init.DatabaseInitializationSettings;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+// Verteilt die Owner auf Shards: Shard 0 ist die DataSource aus spring.datasource, weitere Shards kommen aus
+// cashcard.database.shards.nodes. Alle Tabellen sind nach Owner aufgeteilt, jeder Owner liegt mit Karten, Journal
+// und Summe auf genau einem Shard.
+// Wo ein Owner liegt, bestimmen die Daten: Beim Start wird jeder Owner mit Summe (cash_card_owner_summary) dem Shard
+// zugeordnet, auf dem die Summe liegt. Neue Owner landen über einen konsistenten Hash-Ring auf ihrem Shard. Kommt ein
+// Shard hinzu, bleiben die bestehenden Owner liegen, bis der OwnerShardRebalancer sie auf ihren Ring-Shard verschiebt.
+// Ohne weitere Shards gibt es nur Shard 0 und nichts wird umgeleitet.
+// Die ids sind über alle Shards eindeutig: Jeder Shard vergibt ids aus seinem eigenen Bereich (ID_RANGE), eine
+// verschobene Karte behält ihre id.
+// Ein beim Verschieben abgebrochener Owner wird beim Start anhand von cash_card_owner_move zu Ende verschoben oder
+// zurückgerollt.
+// Die Zuordnung liegt im Speicher dieser Instanz. Nach dem Verschieben müssen weitere Instanzen neu starten
+@Slf4j
+@Component
+public class OwnerShardRouter implements SmartLifecycle {
+
+    static final long ID_RANGE = 1L << 40;
+    private static final int LOCK_STRIPES = 256;
+    private static final ThreadLocal<Integer> CURRENT_SHARD = new ThreadLocal<>();
+
+    private final JdbcTemplate jdbcTemplate;
+    // Index 0 bleibt leer: Shard 0 ist die DataSource, die der ShardRoutingDataSource übergeben wurde
+    private final List<DataSource> shards = new ArrayList<>();
+    private final NavigableMap<Long, Integer> ring = new TreeMap<>();
+    private final Map<String, Integer> locations = new ConcurrentHashMap<>();
+    // Lesesperre: Zugriffe auf die Daten eines Owners. Schreibsperre: Verschieben des Owners
+    private final ReadWriteLock[] moveLocks = new ReadWriteLock[LOCK_STRIPES];
+    private volatile boolean running;
+
+    public OwnerShardRouter(CashCardDatabaseProperties properties, JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        if (!properties.shards().nodes().isEmpty() && !properties.replicas().nodes().isEmpty()) {
+            throw new IllegalStateException("cashcard.database.shards and cashcard.database.replicas cannot be combined");
+        }
+        shards.add(null);
+        for (CashCardDatabaseProperties.Node node : properties.shards().nodes()) {
+            shards.add(DataSourceBuilder.create()
+                    .type(SimpleDriverDataSource.class)
+                    .url(node.url())
+                    .username(node.username())
+                    .password(node.password())
+                    .build());
+        }
+        for (int shard = 0; shard < shards.size(); shard++) {
+            for (int point = 0; point < properties.shards().virtualNodes(); point++) {
+                ring.put(hash("shard-" + shard + "#" + point), shard);
+            }
+        }
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            moveLocks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    static Integer currentShard() {
+        return CURRENT_SHARD.get();
+    }
+
+    static void bind(int shard) {
+        CURRENT_SHARD.set(shard);
+    }
+
+    static void unbind() {
+        CURRENT_SHARD.remove();
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    // Shard, auf dem die Daten des Owners liegen
+    public int shardOf(String owner) {
+        if (shards.size() == 1) {
+            return 0;
+        }
+        return locations.computeIfAbsent(owner, this::ringShard);
+    }
+
+    // Shard laut Hash-Ring: Dort landen neue Owner, dorthin verschiebt der OwnerShardRebalancer
+    public int ringShard(String owner) {
+        Map.Entry<Long, Integer> point = ring.ceilingEntry(hash(owner));
+        return (point != null ? point : ring.firstEntry()).getValue();
+    }
+
+    DataSource dataSource(int shard) {
+        return shards.get(shard);
+    }
+
+    ReadWriteLock moveLock(String owner) {
+        return moveLocks[Math.floorMod(owner.hashCode(), LOCK_STRIPES)];
+    }
+
+    // Nur unter der Schreibsperre des Owners, nachdem seine Daten auf dem neuen Shard committet sind
+    void relocate(String owner, int shard) {
+        locations.put(owner, shard);
+    }
+
+    // Löscht alle Daten des Owners auf dem aktuellen Shard, die Markierung des Verschiebens zuletzt
+    void deleteOwner(String owner) {
+        jdbcTemplate.update("DELETE FROM cash_card_transaction WHERE OWNER = ?", owner);
+        jdbcTemplate.update("DELETE FROM cash_card WHERE OWNER = ?", owner);
+        jdbcTemplate.update("DELETE FROM cash_card_owner_summary WHERE OWNER = ?", owner);
+        jdbcTemplate.update("DELETE FROM cash_card_idempotency WHERE OWNER = ?", owner);
+        jdbcTemplate.update("DELETE FROM cash_card_owner_move WHERE OWNER = ?", owner);
+    }
+
+    public <T> T onShard(int shard, Supplier<T> action) {
+        Integer previous = CURRENT_SHARD.get();
+        CURRENT_SHARD.set(shard);
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                CURRENT_SHARD.remove();
+            } else {
+                CURRENT_SHARD.set(previous);
+            }
+        }
+    }
+
+    // Für Hintergrundjobs über alle Owner (Snapshot, Kompaktierung, Summenprüfung)
+    public void forEachShard(IntConsumer action) {
+        for (int shard = 0; shard < shards.size(); shard++) {
+            int current = shard;
+            onShard(shard, () -> {
+                action.accept(current);
+                return null;
+            });
+        }
+    }
+
+    // Führt action pro Shard mit den Indizes der Elemente aus, deren Owner dort liegen (z.B. ein Flush über viele
+    // Owner). Die Owner werden währenddessen nicht verschoben
+    public <T> void onOwnerShards(List<T> items, Function<T, String> ownerOf, Consumer<List<Integer>> action) {
+        if (shards.size() == 1) {
+            List<Integer> all = new ArrayList<>(items.size());
+            for (int i = 0; i < items.size(); i++) {
+                all.add(i);
+            }
+            onShard(0, () -> {
+                action.accept(all);
+                return null;
+            });
+            return;
+        }
+        // Sperren in fester Reihenfolge
+        SortedSet<Integer> stripes = new TreeSet<>();
+        for (T item : items) {
+            stripes.add(Math.floorMod(ownerOf.apply(item).hashCode(), LOCK_STRIPES));
+        }
+        List<Lock> locked = new ArrayList<>(stripes.size());
+        try {
+            for (int stripe : stripes) {
+                Lock lock = moveLocks[stripe].readLock();
+                lock.lock();
+                locked.add(lock);
+            }
+            Map<Integer, List<Integer>> byShard = new TreeMap<>();
+            for (int i = 0; i < items.size(); i++) {
+                byShard.computeIfAbsent(shardOf(ownerOf.apply(items.get(i))), shard -> new ArrayList<>()).add(i);
+            }
+            byShard.forEach((shard, indexes) -> onShard(shard, () -> {
+                action.accept(indexes);
+                return null;
+            }));
+        } finally {
+            locked.forEach(Lock::unlock);
+        }
+    }
+
+    public Map<Integer, Collection<String>> owners() {
+        Map<Integer, Collection<String>> owners = new TreeMap<>();
+        forEachShard(shard -> owners.put(shard,
+                jdbcTemplate.queryForList("SELECT OWNER FROM cash_card_owner_summary ORDER BY OWNER", String.class)));
+        return owners;
+    }
+
+    // Legt das Schema auf eingebetteten Shards an (wie spring.sql.init.mode=embedded für Shard 0), setzt den
+    // id-Bereich jedes Shards und ordnet die vorhandenen Owner zu
+    @Override
+    public void start() {
+        if (shards.size() > 1) {
+            DatabaseInitializationSettings settings = new DatabaseInitializationSettings();
+            settings.setSchemaLocations(List.of("optional:classpath:schema.sql"));
+            settings.setMode(DatabaseInitializationMode.EMBEDDED);
+            for (int shard = 1; shard < shards.size(); shard++) {
+                new DataSourceScriptDatabaseInitializer(shards.get(shard), settings).initializeDatabase();
+            }
+            restartIds();
+            restoreLocations();
+            log.info("Routing owners to {} shards", shards.size());
+        }
+        running = true;
+    }
+
+    // Jeder Shard vergibt ids hinter der höchsten id seines Bereichs auf allen Shards: Verschobene Karten behalten
+    // ihre id und liegen danach auf einem anderen Shard. Der bisherige Identity-Wert wird nie gesenkt, auch nicht,
+    // wenn die Karte mit der höchsten id inzwischen gelöscht ist
+    void restartIds() {
+        long[] highest = new long[shards.size()];
+        forEachShard(shard -> {
+            for (int range = 0; range < shards.size(); range++) {
+                Long last = jdbcTemplate.queryForObject("SELECT MAX(ID) FROM cash_card WHERE ID >= ? AND ID < ?",
+                        Long.class, range * ID_RANGE, range * ID_RANGE + ID_RANGE);
+                if (last != null) {
+                    highest[range] = Math.max(highest[range], last);
+                }
+            }
+        });
+        forEachShard(shard -> {
+            long next = Math.max(Math.max(1, shard * ID_RANGE), highest[shard] + 1);
+            Long base = jdbcTemplate.queryForObject("""
+                    SELECT IDENTITY_BASE FROM INFORMATION_SCHEMA.COLUMNS
+                    WHERE TABLE_SCHEMA = CURRENT_SCHEMA AND TABLE_NAME = 'CASH_CARD' AND COLUMN_NAME = 'ID'""", Long.class);
+            if (base != null && base < shard * ID_RANGE + ID_RANGE) {
+                next = Math.max(next, base);
+            }
+            jdbcTemplate.execute("ALTER TABLE cash_card ALTER COLUMN ID RESTART WITH " + next);
+        });
+    }
+
+    // Ordnet die vorhandenen Owner ihrem Shard zu. Zuerst wird jedes abgebrochene Verschieben abgeschlossen: Mit
+    // COMMITTED gilt der neue Shard und der alte wird geräumt, sonst gilt der alte Shard und die Kopie wird gelöscht.
+    // Die Markierung wird zuletzt gelöscht, bricht das Aufräumen ab, wiederholt es der nächste Start
+    void restoreLocations() {
+        locations.clear();
+        List<OwnerMove> moves = new ArrayList<>();
+        forEachShard(shard -> moves.addAll(jdbcTemplate.query(
+                "SELECT OWNER, SOURCE_SHARD, COMMITTED FROM cash_card_owner_move",
+                (rs, rowNum) -> new OwnerMove(rs.getString("OWNER"), rs.getInt("SOURCE_SHARD"), shard,
+                        rs.getBoolean("COMMITTED")))));
+        for (OwnerMove move : moves) {
+            int kept = move.committed() ? move.target() : move.source();
+            int stale = move.committed() ? move.source() : move.target();
+            log.warn("Move of owner {} from shard {} to shard {} was interrupted, keeping shard {}",
+                    move.owner(), move.source(), move.target(), kept);
+            onShard(stale, () -> {
+                deleteOwner(move.owner());
+                return null;
+            });
+            onShard(move.target(), () -> jdbcTemplate.update(
+                    "DELETE FROM cash_card_owner_move WHERE OWNER = ?", move.owner()));
+            locations.put(move.owner(), kept);
+        }
+        forEachShard(shard -> {
+            // Auch Owner ohne Summe (Karten an der Anwendung vorbei angelegt), der CashCardSummaryVerifier legt
+            // ihre Summe dann auf dem richtigen Shard an
+            for (String owner : jdbcTemplate.queryForList(
+                    "SELECT OWNER FROM cash_card_owner_summary UNION SELECT DISTINCT OWNER FROM cash_card", String.class)) {
+                Integer other = locations.putIfAbsent(owner, shard);
+                if (other != null && other != shard) {
+                    // Ohne Markierung lässt sich die gültige Kopie nicht bestimmen, der Owner bleibt auf dem ersten Shard
+                    log.warn("Owner {} found on shards {} and {}, using shard {}", owner, other, shard, other);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Vor allen Komponenten, die beim Start schon auf die Datenbank zugreifen (Journal-Replay, Summenprüfung)
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 8192;
+    }
+
+    private record OwnerMove(String owner, int source, int target, boolean committed) {
+    }
+
+    // FNV-1a über UTF-8 mit dem Finalizer von MurmurHash3, damit auch ähnliche Owner-Namen weit verteilt werden
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
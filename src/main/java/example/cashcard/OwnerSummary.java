@@ -0,0 +1,5 @@
+package example.cashcard;
+
+// Summe aller Karten eines Owners (cash_card_owner_summary). totalAmount in Cent, in JSON als Dezimalzahl
+public record OwnerSummary(String owner, @MoneyAmount long totalAmount, long cardCount) {
+}
@@ -0,0 +1,45 @@
+package example.cashcard;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+// Läuft nach der Basic-Authentifizierung und belastet den Bucket des geprüften Users (Bearer-Token oder Basic) mit
+// den Regeln seiner Rolle. Gültige Basic-Credentials liegen im Cache des CachingAuthenticationProviders, ein
+// abgelehnter Request hat BCrypt daher meist nicht gebraucht. Markiert den Request als geprüft, damit der
+// RateLimitFilter ihn nicht als Fehlversuch zählt
+public class PrincipalRateLimitFilter extends OncePerRequestFilter {
+
+    static final String VERIFIED_ATTRIBUTE = PrincipalRateLimitFilter.class.getName() + ".verified";
+
+    private final PrincipalRateLimiter rateLimiter;
+
+    public PrincipalRateLimitFilter(PrincipalRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.isAuthenticated()
+                && !(authentication instanceof AnonymousAuthenticationToken)) {
+            request.setAttribute(VERIFIED_ATTRIBUTE, Boolean.TRUE);
+            long wait = rateLimiter.tryAcquire(authentication.getName(),
+                    PrincipalRateLimiter.roleOf(authentication.getAuthorities()).orElse(null),
+                    request.getMethod(), RateLimitFilter.path(request));
+            if (wait > 0) {
+                RateLimitFilter.reject(response, wait);
+                return;
+            }
+        }
+        filterChain.doFilter(request, response);
+    }
+}
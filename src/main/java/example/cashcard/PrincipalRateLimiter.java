@@ -0,0 +1,236 @@
+package example.cashcard;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.server.PathContainer;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Token-Buckets pro User und Regel (cashcard.rate-limit) und die Admission für alle Requests zusammen.
+// Ein Bucket ist ein einziger long (GCRA): der Zeitpunkt, zu dem der Bucket wieder voll wäre. Ein Request schiebt ihn
+// per compareAndSet um 1/refillPerSecond nach vorne, liegt er dann mehr als capacity Requests in der Zukunft, wird
+// abgelehnt. Kein Lock, kein Hintergrund-Thread zum Auffüllen. Die Buckets eines Users liegen in einem AtomicLongArray
+// (ein Eintrag pro Regel plus die Standardwerte) in einer ConcurrentHashMap.
+// Ein Hintergrund-Thread verwirft alle idleTimeout/2 die Buckets von Usern, die seit idleTimeout wieder voll sind.
+// Ein verworfener Bucket war voll, ein neuer Bucket verhält sich also genauso
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "cashcard.rate-limit.enabled", havingValue = "true", matchIfMissing = true)
+public class PrincipalRateLimiter implements SmartLifecycle {
+
+    static final String REJECTED_COUNTER = "cashcard.ratelimit.rejected";
+    private static final String ROLE_PREFIX = "ROLE_";
+
+    private final CashCardRateLimitProperties properties;
+    private final List<CompiledRule> rules = new ArrayList<>();
+    private final Map<String, AtomicLongArray> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter principalRejections;
+    private final Counter admissionRejections;
+    private volatile ScheduledExecutorService sweeper;
+    private volatile boolean running;
+
+    public PrincipalRateLimiter(CashCardRateLimitProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        for (CashCardRateLimitProperties.Rule rule : properties.rules()) {
+            rules.add(CompiledRule.of(rule.method(), rule.path(), rule.role(), rule.capacity(), rule.refillPerSecond()));
+        }
+        rules.add(CompiledRule.of(null, null, null, properties.capacity(), properties.refillPerSecond()));
+        this.principalRejections = rejectionCounter(meterRegistry, "principal");
+        this.admissionRejections = rejectionCounter(meterRegistry, "admission");
+        Gauge.builder("cashcard.ratelimit.principals", buckets, Map::size)
+                .description("Principals with a token bucket")
+                .register(meterRegistry);
+        Gauge.builder("cashcard.admission.in-flight", inFlight, AtomicInteger::get)
+                .description("Requests currently admitted")
+                .register(meterRegistry);
+    }
+
+    private static Counter rejectionCounter(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder(REJECTED_COUNTER)
+                .description("Requests rejected with 429")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    // 0, wenn der Request durch darf, sonst die Wartezeit in Nanosekunden bis zum nächsten Token
+    public long tryAcquire(String principal, UserRole role, String method, String path) {
+        int index = ruleIndex(role, method, path);
+        CompiledRule rule = rules.get(index);
+        long now = System.nanoTime();
+        AtomicLongArray principalBuckets = buckets.computeIfAbsent(principal, key -> newBuckets(now));
+        while (true) {
+            long full = principalBuckets.get(index);
+            long next = Math.max(full, now) + rule.interval();
+            long excess = next - now - rule.burst();
+            if (excess > 0) {
+                principalRejections.increment();
+                return excess;
+            }
+            if (principalBuckets.compareAndSet(index, full, next)) {
+                return 0;
+            }
+        }
+    }
+
+    // Wie tryAcquire, belastet den Bucket aber nicht. 0 auch, solange der Principal keinen Bucket hat
+    public long checkAvailable(String principal, UserRole role, String method, String path) {
+        AtomicLongArray principalBuckets = buckets.get(principal);
+        if (principalBuckets == null) {
+            return 0;
+        }
+        int index = ruleIndex(role, method, path);
+        CompiledRule rule = rules.get(index);
+        long now = System.nanoTime();
+        long excess = Math.max(principalBuckets.get(index), now) + rule.interval() - now - rule.burst();
+        if (excess > 0) {
+            principalRejections.increment();
+            return excess;
+        }
+        return 0;
+    }
+
+    // false, wenn bereits maxConcurrent Requests laufen. Nach true muss release() folgen
+    public boolean tryAdmit() {
+        CashCardRateLimitProperties.Admission admission = properties.admission();
+        if (!admission.enabled()) {
+            return true;
+        }
+        while (true) {
+            int current = inFlight.get();
+            if (current >= admission.maxConcurrent()) {
+                admissionRejections.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        if (properties.admission().enabled()) {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    public long admissionRetryAfterNanos() {
+        return properties.admission().retryAfter().toNanos();
+    }
+
+    // Rolle des angemeldeten Users, leer ohne Rolle aus UserRole
+    static Optional<UserRole> roleOf(Collection<? extends GrantedAuthority> authorities) {
+        for (GrantedAuthority authority : authorities) {
+            String name = authority.getAuthority();
+            if (name != null && name.startsWith(ROLE_PREFIX)) {
+                for (UserRole role : UserRole.values()) {
+                    if (role.name().equals(name.substring(ROLE_PREFIX.length()))) {
+                        return Optional.of(role);
+                    }
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    // Verwirft die Buckets aller User, deren Buckets seit idleNanos voll sind
+    void evictIdle(long idleNanos) {
+        long now = System.nanoTime();
+        buckets.values().removeIf(principalBuckets -> {
+            for (int i = 0; i < principalBuckets.length(); i++) {
+                if (now - principalBuckets.get(i) < idleNanos) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    private int ruleIndex(UserRole role, String method, String path) {
+        PathContainer pathContainer = null;
+        for (int i = 0; i < rules.size() - 1; i++) {
+            CompiledRule rule = rules.get(i);
+            if (rule.method() != null && !rule.method().equalsIgnoreCase(method)) {
+                continue;
+            }
+            if (rule.role() != null && rule.role() != role) {
+                continue;
+            }
+            if (rule.path() != null) {
+                if (pathContainer == null) {
+                    pathContainer = PathContainer.parsePath(path);
+                }
+                if (!rule.path().matches(pathContainer)) {
+                    continue;
+                }
+            }
+            return i;
+        }
+        return rules.size() - 1;
+    }
+
+    private AtomicLongArray newBuckets(long now) {
+        AtomicLongArray principalBuckets = new AtomicLongArray(rules.size());
+        for (int i = 0; i < rules.size(); i++) {
+            principalBuckets.set(i, now);
+        }
+        return principalBuckets;
+    }
+
+    @Override
+    public void start() {
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cashcard-ratelimit-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, properties.idleTimeout().toNanos() / 2);
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                evictIdle(properties.idleTimeout().toNanos());
+            } catch (RuntimeException e) {
+                log.error("Evicting idle rate limit buckets failed", e);
+            }
+        }, interval, interval, TimeUnit.NANOSECONDS);
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        sweeper.shutdown();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // interval: Nanosekunden pro Token, burst: capacity Tokens in Nanosekunden
+    private record CompiledRule(String method, PathPattern path, UserRole role, long interval, long burst) {
+
+        static CompiledRule of(String method, String path, UserRole role, long capacity, double refillPerSecond) {
+            long interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / refillPerSecond));
+            return new CompiledRule(method, path == null ? null : PathPatternParser.defaultInstance.parse(path),
+                    role, interval, interval * capacity);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package example.cashcard;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+// Läuft vor der Basic-Authentifizierung und damit vor BCrypt: Ein abgelehnter Request kostet weder Hash noch Datenbank.
+// Hier ist der User aus dem Basic-Header noch nicht geprüft, belastet wird daher nur der Bucket der Remote-Adresse:
+// von Requests ohne Anmeldung sofort, von Basic-Requests erst, wenn die Anmeldung gescheitert ist. Ist der Bucket leer,
+// wird jeder weitere Basic-Request der Adresse vor BCrypt abgelehnt. Falsche Passwörter belasten so nie den Bucket des
+// angegebenen Users, wer sie ausprobiert, kann den User nicht aussperren. Den Bucket des Users belastet erst der
+// PrincipalRateLimitFilter nach der Anmeldung (Bearer-Token oder Basic).
+// Gleichzeitige Fehlversuche prüfen den Bucket, bevor der erste von ihnen belastet ist. Über das Limit hinaus
+// erreichen BCrypt so höchstens so viele, wie die Admission gleichzeitig durchlässt.
+// Danach die Admission: Laufen bereits maxConcurrent Requests, wird sofort abgelehnt statt in der Warteschlange des
+// DatabaseConcurrencyLimiters zu warten. Asynchrone Requests (Export) zählen nur bis zum Start der Verarbeitung
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private static final String BASIC_PREFIX = "Basic ";
+
+    private final PrincipalRateLimiter rateLimiter;
+
+    public RateLimitFilter(PrincipalRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String method = request.getMethod();
+        String path = path(request);
+        String address = "address:" + request.getRemoteAddr();
+        boolean unverified = false;
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated()) {
+            unverified = basicUsername(request) != null;
+            long wait = unverified
+                    ? rateLimiter.checkAvailable(address, null, method, path)
+                    : rateLimiter.tryAcquire(address, null, method, path);
+            if (wait > 0) {
+                reject(response, wait);
+                return;
+            }
+        }
+        if (!rateLimiter.tryAdmit()) {
+            reject(response, rateLimiter.admissionRetryAfterNanos());
+            return;
+        }
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            rateLimiter.release();
+            // Ohne geprüften User hat der BasicAuthenticationFilter die Anmeldung abgelehnt
+            if (unverified && request.getAttribute(PrincipalRateLimitFilter.VERIFIED_ATTRIBUTE) == null) {
+                rateLimiter.tryAcquire(address, null, method, path);
+            }
+        }
+    }
+
+    static String path(HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+
+    static void reject(HttpServletResponse response, long waitNanos) {
+        // Retry-After in ganzen Sekunden, aufgerundet
+        long seconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(seconds));
+    }
+
+    // Nur der Username, das Passwort prüft erst der BasicAuthenticationFilter
+    private static String basicUsername(HttpServletRequest request) {
+        String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (header == null || !header.regionMatches(true, 0, BASIC_PREFIX, 0, BASIC_PREFIX.length())) {
+            return null;
+        }
+        try {
+            String credentials = new String(Base64.getDecoder().decode(header.substring(BASIC_PREFIX.length()).trim()),
+                    StandardCharsets.UTF_8);
+            int colon = credentials.indexOf(':');
+            return colon < 0 ? null : credentials.substring(0, colon);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package example.cashcard;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Verteilt Lesezugriffe reihum auf die Lese-Replikate (cashcard.database.replicas.nodes).
+// Ob ein Thread von einem Replikat lesen darf, legt der ReplicaRoutingInterceptor pro Request fest: GET-Requests ja,
+// außer der User hat innerhalb von stickiness selbst geschrieben (read-your-writes). Alles andere, auch
+// Hintergrundjobs, liest und schreibt auf der primären DataSource.
+// Replikate gelten beim Start als gesund. Scheitert getConnection(), wird das Replikat sofort ausgenommen, die
+// Prüfung alle healthCheckInterval nimmt es wieder auf, sobald Connection.isValid() gelingt. Ist kein Replikat
+// gesund, liest der Request von der primären DataSource (Counter cashcard.db.replica.fallback)
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "cashcard.database.replicas.nodes[0].url")
+public class ReadReplicaRouter implements SmartLifecycle {
+
+    static final String FALLBACK_COUNTER = "cashcard.db.replica.fallback";
+    private static final ThreadLocal<Boolean> REPLICA_READ = new ThreadLocal<>();
+
+    private final CashCardDatabaseProperties.Replicas properties;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    // Zeitpunkt (nanoTime) des letzten Schreibzugriffs pro User
+    private final Map<String, Long> lastWrites = new ConcurrentHashMap<>();
+    private final Counter fallbacks;
+    private volatile ScheduledExecutorService scheduler;
+    private volatile boolean running;
+
+    public ReadReplicaRouter(CashCardDatabaseProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties.replicas();
+        List<CashCardDatabaseProperties.Node> nodes = this.properties.nodes();
+        for (int i = 0; i < nodes.size(); i++) {
+            CashCardDatabaseProperties.Node node = nodes.get(i);
+            // Ohne Pool wie die primäre DataSource, jede Verbindung wird neu geöffnet
+            replicas.add(new Replica("replica-" + i, DataSourceBuilder.create()
+                    .type(SimpleDriverDataSource.class)
+                    .url(node.url())
+                    .username(node.username())
+                    .password(node.password())
+                    .build()));
+        }
+        this.fallbacks = Counter.builder(FALLBACK_COUNTER)
+                .description("Replica reads served by the primary because no replica was healthy")
+                .register(meterRegistry);
+        Gauge.builder("cashcard.db.replicas.healthy", replicas, all -> all.stream().filter(replica -> replica.healthy).count())
+                .description("Read replicas currently receiving reads")
+                .register(meterRegistry);
+    }
+
+    static void routeReadsToReplicas() {
+        REPLICA_READ.set(Boolean.TRUE);
+    }
+
+    static void clearRoute() {
+        REPLICA_READ.remove();
+    }
+
+    static boolean readsFromReplica() {
+        return REPLICA_READ.get() != null;
+    }
+
+    // Nimmt die Route des aufrufenden Threads mit auf einen anderen Thread (z.B. den asynchronen Export)
+    static Runnable withCurrentRoute(Runnable task) {
+        boolean replicaRead = readsFromReplica();
+        return () -> {
+            if (replicaRead) {
+                routeReadsToReplicas();
+            }
+            try {
+                task.run();
+            } finally {
+                clearRoute();
+            }
+        };
+    }
+
+    public void markWrite(String user) {
+        lastWrites.put(user, System.nanoTime());
+    }
+
+    public boolean isSticky(String user) {
+        Long writtenAt = lastWrites.get(user);
+        return writtenAt != null && System.nanoTime() - writtenAt < properties.stickiness().toNanos();
+    }
+
+    // Verbindung zum nächsten gesunden Replikat, null wenn keines erreichbar ist
+    Connection replicaConnection() {
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (!replica.healthy) {
+                continue;
+            }
+            try {
+                return replica.dataSource.getConnection();
+            } catch (SQLException e) {
+                log.warn("Read replica {} failed, reading from the primary until it recovers", replica.name, e);
+                replica.healthy = false;
+            }
+        }
+        fallbacks.increment();
+        return null;
+    }
+
+    public void checkHealth() {
+        int timeoutSeconds = (int) Math.max(1, properties.healthCheckTimeout().toSeconds());
+        for (Replica replica : replicas) {
+            boolean healthy;
+            try (Connection connection = replica.dataSource.getConnection()) {
+                healthy = connection.isValid(timeoutSeconds);
+            } catch (SQLException e) {
+                healthy = false;
+            }
+            if (healthy != replica.healthy) {
+                log.info("Read replica {} is {}", replica.name, healthy ? "healthy again" : "unhealthy");
+            }
+            replica.healthy = healthy;
+        }
+        // Abgelaufene Schreibzeitpunkte entfernen, damit die Map nicht mit jedem User wächst
+        long now = System.nanoTime();
+        lastWrites.values().removeIf(writtenAt -> now - writtenAt >= properties.stickiness().toNanos());
+    }
+
+    @Override
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cashcard-replica-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.healthCheckInterval().toNanos();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                checkHealth();
+            } catch (RuntimeException e) {
+                log.error("Replica health check failed", e);
+            }
+        }, interval, interval, TimeUnit.NANOSECONDS);
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private static final class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        private volatile boolean healthy = true;
+
+        private Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+    }
+}
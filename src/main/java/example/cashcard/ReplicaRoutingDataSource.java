@@ -0,0 +1,48 @@
+package example.cashcard;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// Die primäre DataSource, die Verbindungen für Lesezugriffe (ReadReplicaRouter.readsFromReplica) von einem
+// gesunden Replikat holt. Entschieden wird pro Verbindung: Eine Transaktion bleibt komplett auf einem Knoten
+public class ReplicaRoutingDataSource extends DelegatingDataSource {
+
+    private final ObjectProvider<ReadReplicaRouter> routerProvider;
+    // Erst beim ersten getConnection() aufgelöst, wie in ConcurrencyLimitedDataSource
+    private volatile ReadReplicaRouter router;
+
+    public ReplicaRoutingDataSource(DataSource primary, ObjectProvider<ReadReplicaRouter> routerProvider) {
+        super(primary);
+        this.routerProvider = routerProvider;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (ReadReplicaRouter.readsFromReplica()) {
+            Connection replica = router().replicaConnection();
+            if (replica != null) {
+                return replica;
+            }
+        }
+        return obtainTargetDataSource().getConnection();
+    }
+
+    // Mit eigenen Zugangsdaten immer die primäre DataSource, die Replikate haben ihre eigenen
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return obtainTargetDataSource().getConnection(username, password);
+    }
+
+    private ReadReplicaRouter router() {
+        ReadReplicaRouter current = router;
+        if (current == null) {
+            current = routerProvider.getObject();
+            router = current;
+        }
+        return current;
+    }
+}
@@ -0,0 +1,54 @@
+package example.cashcard;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import java.security.Principal;
+
+// GET-Requests (findById, findAll, export, ...) lesen von den Replikaten, außer der User hat innerhalb von
+// cashcard.database.replicas.stickiness geschrieben. Jeder andere Request läuft auf der primären DataSource und
+// startet das Zeitfenster des Users schon vor der Verarbeitung und nach Abschluss noch einmal. So liest ein paralleles
+// GET desselben Users bereits während des Schreibzugriffs von der primären DataSource
+public class ReplicaRoutingInterceptor implements AsyncHandlerInterceptor {
+
+    private final ReadReplicaRouter router;
+
+    public ReplicaRoutingInterceptor(ReadReplicaRouter router) {
+        this.router = router;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        Principal principal = request.getUserPrincipal();
+        if (!isRead(request)) {
+            if (principal != null) {
+                router.markWrite(principal.getName());
+            }
+        } else if (principal == null || !router.isSticky(principal.getName())) {
+            ReadReplicaRouter.routeReadsToReplicas();
+        }
+        return true;
+    }
+
+    // Asynchrone Requests (Export): Der Task hat die Route bereits übernommen, der Request-Thread gibt sie frei
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        ReadReplicaRouter.clearRoute();
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        ReadReplicaRouter.clearRoute();
+        // Zeitfenster ab Commit, auch bei fehlgeschlagenen Schreibzugriffen, ob etwas geschrieben wurde, ist hier
+        // nicht sicher bekannt
+        Principal principal = request.getUserPrincipal();
+        if (!isRead(request) && principal != null) {
+            router.markWrite(principal.getName());
+        }
+    }
+
+    private static boolean isRead(HttpServletRequest request) {
+        return "GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod());
+    }
+}
@@ -1,7 +1,16 @@
 package example.cashcard;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
+import org.springframework.boot.actuate.health.HealthEndpoint;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
@@ -13,27 +22,93 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
+
+import java.time.Clock;
 
 // Erzeugt unter anderem einen Filter in der Security Chain
+@Slf4j
 @EnableWebSecurity
 // Spring nutzt diese Klasse nun für die Konfiguration. Jede Bean-Methode wird aufgerufen und das Resultat in den Spring IoC Container gelegt
 @Configuration
 public class SecurityConfig {
 
+    // Eigene Chain für den Actuator (Metriken, Prometheus-Scrape) mit eigenem User und eigenem AuthenticationManager.
+    // Der Metrics-User kann sich an /cashcards/** nicht anmelden und die Karten-User nicht am Actuator.
+    // @Order sorgt dafür, dass diese Chain vor der allgemeinen geprüft wird
+    @Bean
+    @Order(1)
+    public SecurityFilterChain actuatorSecurityFilterChain(HttpSecurity http, PasswordEncoder passwordEncoder,
+                                                           CashCardSecurityProperties properties) throws Exception {
+        // Ohne konfiguriertes Passwort gibt es keinen Metrics-User, alle Endpunkte außer health sind dann gesperrt
+        InMemoryUserDetailsManager metricsUsers = new InMemoryUserDetailsManager();
+        if (properties.metrics().enabled()) {
+            metricsUsers.createUser(User.builder()
+                    .username(properties.metrics().username())
+                    .password(passwordEncoder.encode(properties.metrics().password()))
+                    .roles(UserRole.METRICS_READER.name())
+                    .build());
+        } else {
+            log.warn("cashcard.security.metrics.password is not set, actuator endpoints other than health are disabled");
+        }
+        DaoAuthenticationProvider metricsAuthenticationProvider = new DaoAuthenticationProvider(metricsUsers);
+        metricsAuthenticationProvider.setPasswordEncoder(passwordEncoder);
+        http.securityMatcher(EndpointRequest.toAnyEndpoint())
+                .authorizeHttpRequests(request -> request
+                        .requestMatchers(EndpointRequest.to(HealthEndpoint.class)).permitAll()
+                        .anyRequest().hasRole(UserRole.METRICS_READER.name()))
+                .httpBasic(Customizer.withDefaults())
+                .authenticationManager(new ProviderManager(metricsAuthenticationProvider))
+                .csrf(AbstractHttpConfigurer::disable);
+        return http.build();
+    }
+
     @Bean
-    public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+    @Order(2)
+    public SecurityFilterChain securityFilterChain(HttpSecurity http,
+                                                   CachingAuthenticationProvider cachingAuthenticationProvider,
+                                                   SignedTokenService signedTokenService,
+                                                   CashCardSecurityProperties properties,
+                                                   MeterRegistry meterRegistry,
+                                                   ObjectProvider<PrincipalRateLimiter> rateLimiter) throws Exception {
         http.authorizeHttpRequests(request -> request
                         // Alle Anfragen an /cashcards/** müssen authentifiziert sein bei Basic Auth
                         // TODO Rollen einführen
-                        .requestMatchers("/cashcards/**").authenticated())
+                        .requestMatchers("/cashcards/**", "/auth/**").authenticated())
                 .httpBasic(Customizer.withDefaults())
+                // Eigener AuthenticationManager mit vorgeschaltetem Cache, damit BCrypt nicht bei jedem Request läuft
+                .authenticationManager(new ProviderManager(cachingAuthenticationProvider))
                 // TODO Cross Site Request Forgery (CSRF) lernen
                 .csrf(AbstractHttpConfigurer::disable);
+        if (properties.token().enabled()) {
+            http.addFilterBefore(new SignedTokenAuthenticationFilter(signedTokenService, meterRegistry),
+                    BasicAuthenticationFilter.class);
+        }
+        // Nach dem Token-Filter (gleiche Position, Reihenfolge der Registrierung), vor BCrypt im BasicAuthenticationFilter.
+        // Der Bucket des Users erst nach der Anmeldung
+        rateLimiter.ifAvailable(limiter -> http
+                .addFilterBefore(new RateLimitFilter(limiter), BasicAuthenticationFilter.class)
+                .addFilterAfter(new PrincipalRateLimitFilter(limiter), BasicAuthenticationFilter.class));
         return http.build();
     }
 
     @Bean
-    UserDetailsService onlyTestUser(PasswordEncoder passwordEncoder) {
+    CachingAuthenticationProvider cachingAuthenticationProvider(UserDetailsService userDetailsService,
+                                                                PasswordEncoder passwordEncoder,
+                                                                CashCardSecurityProperties properties,
+                                                                MeterRegistry meterRegistry) {
+        DaoAuthenticationProvider daoAuthenticationProvider = new DaoAuthenticationProvider(userDetailsService);
+        daoAuthenticationProvider.setPasswordEncoder(passwordEncoder);
+        return new CachingAuthenticationProvider(daoAuthenticationProvider, properties.authCache(), meterRegistry);
+    }
+
+    @Bean
+    SignedTokenService signedTokenService(CashCardSecurityProperties properties) {
+        return new SignedTokenService(properties.token(), Clock.systemUTC());
+    }
+
+    @Bean
+    UserDetailsService onlyTestUser(PasswordEncoder passwordEncoder, ApplicationEventPublisher eventPublisher) {
         UserDetails owner1 = User.builder()
                 .username("owner1")
                 .password(passwordEncoder.encode("12345"))
@@ -49,7 +124,8 @@ public class SecurityConfig {
                 .password(passwordEncoder.encode("54321"))
                 .roles(UserRole.NON_CARD_OWNER.name())
                 .build();
-        return new InMemoryUserDetailsManager(owner1, hank);
+        // Veröffentlicht bei Passwortänderungen ein Event, damit der Credential-Cache den User verwirft
+        return new EventPublishingUserDetailsManager(eventPublisher, owner1, hank);
     }
 
     @Bean
@@ -0,0 +1,48 @@
+package example.cashcard;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// Holt Verbindungen vom Shard, an den der Thread gerade gebunden ist (OwnerShardRouter.currentShard), ohne Bindung
+// von Shard 0. Liegt hinter einem LazyConnectionDataSourceProxy: Eine Transaktion beginnt, bevor das erste
+// Repository bestimmt, welchem Owner sie gilt. Die echte Verbindung wird erst beim ersten Statement geholt,
+// dann ist der Shard gebunden (siehe ShardRoutingInterceptor)
+public class ShardRoutingDataSource extends DelegatingDataSource {
+
+    private final ObjectProvider<OwnerShardRouter> routerProvider;
+    // Erst beim ersten getConnection() aufgelöst, wie in ConcurrencyLimitedDataSource
+    private volatile OwnerShardRouter router;
+
+    public ShardRoutingDataSource(DataSource shardZero, ObjectProvider<OwnerShardRouter> routerProvider) {
+        super(shardZero);
+        this.routerProvider = routerProvider;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Integer shard = OwnerShardRouter.currentShard();
+        if (shard == null || shard == 0) {
+            return obtainTargetDataSource().getConnection();
+        }
+        return router().dataSource(shard).getConnection();
+    }
+
+    // Mit eigenen Zugangsdaten immer Shard 0, die übrigen Shards haben ihre eigenen
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return obtainTargetDataSource().getConnection(username, password);
+    }
+
+    private OwnerShardRouter router() {
+        OwnerShardRouter current = router;
+        if (current == null) {
+            current = routerProvider.getObject();
+            router = current;
+        }
+        return current;
+    }
+}
@@ -0,0 +1,123 @@
+package example.cashcard;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+// Bindet den Thread vor jedem Repository-Aufruf an den Shard des Owners (ICashCardRepository, CashCardJdbcRepository).
+// Den Owner liefert ein Parameter namens owner, sonst eine CashCard unter den Argumenten (save, insertAll).
+// Methoden ohne Owner (findById, applyDeltas, snapshotTransactions, ...) laufen auf dem gerade gebundenen Shard,
+// ohne Bindung auf Shard 0. Hintergrundjobs binden dafür selbst (OwnerShardRouter.forEachShard).
+// In einer Transaktion bleiben Bindung und Lesesperre bis zum Ende der Transaktion bestehen, ein Owner auf einem
+// anderen Shard wird dann abgelehnt: Transaktionen über mehrere Shards gibt es nicht
+public class ShardRoutingInterceptor implements MethodInterceptor {
+
+    private static final int NO_OWNER = -1;
+
+    private final ObjectProvider<OwnerShardRouter> routerProvider;
+    private final Map<Method, Integer> ownerParameters = new ConcurrentHashMap<>();
+    private volatile OwnerShardRouter router;
+
+    public ShardRoutingInterceptor(ObjectProvider<OwnerShardRouter> routerProvider) {
+        this.routerProvider = routerProvider;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        String owner = ownerOf(invocation);
+        if (owner == null) {
+            return invocation.proceed();
+        }
+        OwnerShardRouter router = router();
+        Lock lock = router.moveLock(owner).readLock();
+        lock.lock();
+        boolean locked = true;
+        boolean bound = false;
+        try {
+            int shard = router.shardOf(owner);
+            Integer current = OwnerShardRouter.currentShard();
+            if (current != null && current != shard) {
+                throw new IllegalStateException("Owner " + owner + " lives on shard " + shard
+                        + " but the current transaction is bound to shard " + current);
+            }
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                if (current == null) {
+                    OwnerShardRouter.bind(shard);
+                }
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        if (current == null) {
+                            OwnerShardRouter.unbind();
+                        }
+                        lock.unlock();
+                    }
+                });
+                locked = false;
+                return invocation.proceed();
+            }
+            if (current == null) {
+                OwnerShardRouter.bind(shard);
+                bound = true;
+            }
+            return invocation.proceed();
+        } finally {
+            if (bound) {
+                OwnerShardRouter.unbind();
+            }
+            if (locked) {
+                lock.unlock();
+            }
+        }
+    }
+
+    private String ownerOf(MethodInvocation invocation) {
+        Object[] arguments = invocation.getArguments();
+        int index = ownerParameters.computeIfAbsent(invocation.getMethod(), ShardRoutingInterceptor::ownerParameter);
+        if (index != NO_OWNER) {
+            return (String) arguments[index];
+        }
+        for (Object argument : arguments) {
+            if (argument instanceof CashCard cashCard) {
+                return cashCard.getOwner();
+            }
+            // Batches (insertAll, saveAll) enthalten nur Karten eines Owners
+            if (argument instanceof Iterable<?> iterable) {
+                Iterator<?> iterator = iterable.iterator();
+                if (iterator.hasNext() && iterator.next() instanceof CashCard cashCard) {
+                    return cashCard.getOwner();
+                }
+            }
+        }
+        return null;
+    }
+
+    // Braucht die Parameternamen im Bytecode (-parameters, wie für die @Query-Parameter von Spring Data)
+    private static int ownerParameter(Method method) {
+        Parameter[] parameters = method.getParameters();
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i].getType() == String.class && parameters[i].getName().equals("owner")) {
+                return i;
+            }
+        }
+        return NO_OWNER;
+    }
+
+    private OwnerShardRouter router() {
+        OwnerShardRouter current = router;
+        if (current == null) {
+            current = routerProvider.getObject();
+            router = current;
+        }
+        return current;
+    }
+}
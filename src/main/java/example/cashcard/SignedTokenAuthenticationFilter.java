@@ -0,0 +1,59 @@
+package example.cashcard;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Liest "Authorization: Bearer <token>" und meldet den User an, wenn das Token gültig ist.
+// Ungültige Tokens werden ignoriert, die Anfrage scheitert dann wie ohne Anmeldung mit 401.
+// Nicht für /auth/**: Ein neues Token gibt es nur gegen Basic-Credentials, sonst ließe sich ein (gestohlenes) Token
+// endlos verlängern, auch nach einer Passwortänderung
+public class SignedTokenAuthenticationFilter extends OncePerRequestFilter {
+
+    private static final String BEARER_PREFIX = "Bearer ";
+    private static final String AUTH_PATH = "/auth/";
+
+    private final SignedTokenService tokenService;
+    private final Timer successTimer;
+    private final Timer failureTimer;
+
+    public SignedTokenAuthenticationFilter(SignedTokenService tokenService, MeterRegistry meterRegistry) {
+        this.tokenService = tokenService;
+        this.successTimer = CachingAuthenticationProvider.authenticationTimer(meterRegistry, "token", "success");
+        this.failureTimer = CachingAuthenticationProvider.authenticationTimer(meterRegistry, "token", "failure");
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return request.getRequestURI().startsWith(request.getContextPath() + AUTH_PATH);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (header != null && header.startsWith(BEARER_PREFIX)) {
+            long start = System.nanoTime();
+            Optional<Authentication> authentication = tokenService.verify(header.substring(BEARER_PREFIX.length()));
+            authentication.ifPresent(verified -> {
+                SecurityContext context = SecurityContextHolder.createEmptyContext();
+                context.setAuthentication(verified);
+                SecurityContextHolder.setContext(context);
+            });
+            (authentication.isPresent() ? successTimer : failureTimer).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        filterChain.doFilter(request, response);
+    }
+}
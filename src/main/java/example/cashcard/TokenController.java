@@ -0,0 +1,33 @@
+package example.cashcard;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+// Tauscht Basic-Credentials einmalig gegen ein kurzlebiges Token. Danach schickt der Client
+// "Authorization: Bearer <token>" und es läuft kein BCrypt mehr pro Request.
+// Ein Token lässt sich nicht gegen ein neues tauschen, der SignedTokenAuthenticationFilter ignoriert /auth/**
+@RestController
+@RequestMapping("/auth")
+@ConditionalOnProperty(name = "cashcard.security.token.enabled", havingValue = "true")
+public class TokenController {
+    @Autowired
+    private SignedTokenService tokenService;
+
+    @PostMapping("/token")
+    private ResponseEntity<TokenResponseDto> token(Authentication authentication) {
+        if (authentication instanceof SignedTokenService.TokenAuthentication) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(new TokenResponseDto(tokenService.issue(authentication), tokenService.getTtl().toSeconds()));
+    }
+
+    private record TokenResponseDto(String token, long expiresIn) {
+
+    }
+}
@@ -0,0 +1,6 @@
+package example.cashcard;
+
+// Wird veröffentlicht, wenn sich Passwort, Rollen oder Existenz eines Users ändern.
+// Caches für Credentials (CachingAuthenticationProvider) hören darauf und verwerfen ihre Einträge
+public record UserCredentialsChangedEvent(String username) {
+}
@@ -1,5 +1,7 @@
 package example.cashcard;
 
 public enum UserRole {
-    CARD_OWNER, NON_CARD_OWNER
+    CARD_OWNER, NON_CARD_OWNER,
+    // Darf nur /actuator/** lesen (z.B. Prometheus-Scrape), nicht /cashcards/**
+    METRICS_READER
 }
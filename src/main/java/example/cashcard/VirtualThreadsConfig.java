@@ -0,0 +1,22 @@
+package example.cashcard;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.context.annotation.Configuration;
+
+// spring.threads.virtual.enabled=true: Tomcat bearbeitet jeden Request auf einem eigenen virtuellen Thread statt
+// im Pool mit server.tomcat.threads.max Plattform-Threads. Blockierende JDBC-Aufrufe geben den Träger-Thread frei,
+// gewartet wird im DatabaseConcurrencyLimiter.
+// Virtuelle Threads gibt es erst ab Java 21. Spring Boot ignoriert die Property auf älteren JVMs stillschweigend,
+// hier bricht der Start stattdessen ab, damit der Modus nicht unbemerkt wirkungslos bleibt
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadsConfig {
+
+    public VirtualThreadsConfig() {
+        if (!JavaVersion.getJavaVersion().isEqualOrNewerThan(JavaVersion.TWENTY_ONE)) {
+            throw new IllegalStateException("spring.threads.virtual.enabled=true requires Java 21 or newer, running on "
+                    + System.getProperty("java.version"));
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package example.cashcard;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    private final MeterRegistry meterRegistry;
+    private final ObjectProvider<ReadReplicaRouter> readReplicaRouter;
+
+    public WebConfig(MeterRegistry meterRegistry, ObjectProvider<ReadReplicaRouter> readReplicaRouter) {
+        this.meterRegistry = meterRegistry;
+        this.readReplicaRouter = readReplicaRouter;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerTimingInterceptor(meterRegistry)).addPathPatterns("/cashcards/**");
+        // Nur mit konfigurierten Replikaten (cashcard.database.replicas.nodes)
+        readReplicaRouter.ifAvailable(router ->
+                registry.addInterceptor(new ReplicaRoutingInterceptor(router)).addPathPatterns("/cashcards/**"));
+    }
+}
@@ -0,0 +1,335 @@
+package example.cashcard;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+// Write-Behind für POST /cashcards/balance/{id} (cashcard.balance.mode=WRITE_BEHIND).
+// Aufladungen landen in einem LongAdder pro Karte. Der LongAdder verteilt parallele Aufladungen derselben Karte
+// auf mehrere Zellen, Aufladungen warten daher weder auf die Datenbank noch aufeinander.
+// Ein Flusher-Thread schreibt in festen Abständen (oder nach flushThreshold Aufladungen) alle offenen Beträge
+// als einen JDBC-Batch, mehrere Aufladungen einer Karte werden dabei zu einem UPDATE zusammengefasst.
+// Der LongAdder wird nie zurückgesetzt: geschrieben wird sum() - flushed. So geht keine Aufladung verloren,
+// die parallel zum Flush eintrifft, sie wird einfach beim nächsten Flush geschrieben.
+// Ist nach einem Flush nichts mehr offen, verwirft der Flush den Zähler, damit maxCards nur für gerade aktive Karten
+// gilt. Aufladungen halten dafür den (geteilten) Read-Lock von addLock, das Verwerfen kurz den Write-Lock. Wer danach
+// noch den verworfenen Zähler erwischt, legt einen neuen an
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "cashcard.balance.mode", havingValue = "WRITE_BEHIND")
+public class WriteBehindBalanceAccumulator implements SmartLifecycle {
+
+    static final String FLUSH_TIMER = "cashcard.balance.flush";
+    private static final int DRAIN_ATTEMPTS = 3;
+
+    private final ConcurrentHashMap<Long, PendingBalance> pending = new ConcurrentHashMap<>();
+    // Aufladungen seit dem letzten Flush, nur für den vorzeitigen Flush bei flushThreshold
+    private final LongAdder unflushedTopUps = new LongAdder();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final CashCardJdbcRepository jdbcRepository;
+    private final CashCardCache cashCardCache;
+    private final TransactionTemplate transactionTemplate;
+    private final OwnerShardRouter shardRouter;
+    private final CashCardBalanceProperties.WriteBehind properties;
+    private final Timer flushTimer;
+    private volatile ScheduledExecutorService flusher;
+    private volatile boolean running;
+
+    public WriteBehindBalanceAccumulator(CashCardJdbcRepository jdbcRepository, CashCardCache cashCardCache,
+                                         TransactionTemplate transactionTemplate, OwnerShardRouter shardRouter,
+                                         CashCardBalanceProperties properties, MeterRegistry meterRegistry) {
+        this.jdbcRepository = jdbcRepository;
+        this.cashCardCache = cashCardCache;
+        this.transactionTemplate = transactionTemplate;
+        this.shardRouter = shardRouter;
+        this.properties = properties.writeBehind();
+        this.flushTimer = Timer.builder(FLUSH_TIMER)
+                .description("Time to write pending top-ups to cash_card")
+                .register(meterRegistry);
+        Gauge.builder("cashcard.balance.pending.cards", pending, Map::size)
+                .description("Cards with a write-behind counter")
+                .register(meterRegistry);
+    }
+
+    // Nimmt eine Aufladung an. Der Aufrufer muss vorher prüfen, dass die Karte existiert und dem Owner gehört, und
+    // übergibt ihren Kontostand samt offener Aufladungen (read). Passt die Aufladung nicht mehr in long, wird sie mit
+    // einer ArithmeticException abgelehnt wie im direkten Modus. Sonst würde jedes Lesen und jeder Flush der Karte
+    // scheitern, und die bereits bestätigte Aufladung käme nie in die Datenbank.
+    // Gleichzeitige Aufladungen derselben Karte sieht der übergebene Kontostand nicht.
+    // false, wenn der Accumulator nicht läuft oder maxCards erreicht ist. Dann schreibt der Aufrufer direkt
+    public boolean add(long id, String owner, long amount, long currentAmount) {
+        Money.add(currentAmount, amount);
+        if (!running) {
+            return false;
+        }
+        while (true) {
+            PendingBalance balance = pending.get(id);
+            if (balance == null) {
+                if (pending.size() >= properties.maxCards()) {
+                    return false;
+                }
+                balance = pending.computeIfAbsent(id, key -> new PendingBalance(owner));
+            }
+            if (balance.tryAdd(amount)) {
+                break;
+            }
+        }
+        unflushedTopUps.increment();
+        if (unflushedTopUps.sum() >= properties.flushThreshold() && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(this::flushQuietly);
+        }
+        return true;
+    }
+
+    // Liest eine Karte über den loader und rechnet die noch nicht geschriebenen Aufladungen hinzu.
+    // Ein Flush ändert Datenbank, Cache und flushed unter dem Write-Lock der Karte. Überschneidet sich der
+    // optimistische Lesezugriff damit, wird er unter dem Read-Lock wiederholt, damit nie ein bereits geschriebener
+    // Betrag doppelt oder ein noch nicht sichtbarer gar nicht gezählt wird
+    public Optional<CashCard> read(long id, Supplier<Optional<CashCard>> loader) {
+        PendingBalance balance = pending.get(id);
+        if (balance == null) {
+            return loader.get();
+        }
+        long stamp = balance.lock.tryOptimisticRead();
+        Optional<CashCard> cashCard = loader.get();
+        long unflushed = balance.unflushed();
+        if (!balance.lock.validate(stamp)) {
+            stamp = balance.lock.readLock();
+            try {
+                cashCard = loader.get();
+                unflushed = balance.unflushed();
+            } finally {
+                balance.lock.unlockRead(stamp);
+            }
+        }
+        long delta = unflushed;
+        return cashCard.map(card -> {
+            card.setAmount(Money.add(card.getAmount(), delta));
+            return card;
+        });
+    }
+
+    // true, solange die Karte einen Zähler hat, d.h. cash_card.AMOUNT noch Aufladungen fehlen können
+    public boolean hasPending(long id) {
+        return pending.containsKey(id);
+    }
+
+    // Für sync=true: schreibt alle bis jetzt angenommenen Aufladungen und wartet darauf. false, wenn die Karte id
+    // dabei nicht geschrieben werden konnte. Ihre Aufladungen bleiben dann offen und werden mit einem späteren Flush
+    // geschrieben, sie dürfen dem Client daher nicht als gescheitert gemeldet werden
+    public boolean flushAndWait(long id) {
+        if (!running) {
+            return !pending.containsKey(id);
+        }
+        return !CompletableFuture.supplyAsync(this::flush, flusher).join().contains(id);
+    }
+
+    // Schreibt alle offenen Beträge und gibt die ids der Karten zurück, die nicht geschrieben werden konnten.
+    // Läuft nur im Flusher-Thread bzw. nach dessen Ende beim Drain, daher nie parallel zu sich selbst
+    Set<Long> flush() {
+        List<PendingBalance> balances = new ArrayList<>();
+        List<Long> sums = new ArrayList<>();
+        List<BalanceDelta> deltas = new ArrayList<>();
+        for (Map.Entry<Long, PendingBalance> entry : pending.entrySet()) {
+            PendingBalance balance = entry.getValue();
+            long sum = balance.added.sum();
+            if (sum != balance.flushed) {
+                balances.add(balance);
+                sums.add(sum);
+                deltas.add(new BalanceDelta(entry.getKey(), balance.owner, sum - balance.flushed));
+            } else {
+                removeIfFlushed(entry.getKey(), balance);
+            }
+        }
+        unflushedTopUps.reset();
+        if (deltas.isEmpty()) {
+            return Set.of();
+        }
+        long[] stamps = new long[balances.size()];
+        for (int i = 0; i < balances.size(); i++) {
+            stamps[i] = balances.get(i).lock.writeLock();
+        }
+        try {
+            boolean[] written = flushTimer.record(() -> write(deltas));
+            Set<Long> failed = new HashSet<>();
+            for (int i = 0; i < deltas.size(); i++) {
+                if (written[i]) {
+                    balances.get(i).flushed = sums.get(i);
+                    cashCardCache.evict(deltas.get(i).id(), deltas.get(i).owner());
+                } else {
+                    failed.add(deltas.get(i).id());
+                }
+            }
+            return failed;
+        } finally {
+            for (int i = 0; i < balances.size(); i++) {
+                balances.get(i).lock.unlockWrite(stamps[i]);
+            }
+            for (int i = 0; i < balances.size(); i++) {
+                removeIfFlushed(deltas.get(i).id(), balances.get(i));
+            }
+        }
+    }
+
+    // Nur im Flusher-Thread, flushed ändert sich also nicht. Unter dem Write-Lock von addLock läuft keine Aufladung,
+    // unflushed() ist damit exakt
+    private void removeIfFlushed(long id, PendingBalance balance) {
+        long stamp = balance.addLock.writeLock();
+        try {
+            if (balance.unflushed() == 0) {
+                balance.removed = true;
+                pending.remove(id, balance);
+            }
+        } finally {
+            balance.addLock.unlockWrite(stamp);
+        }
+    }
+
+    // Alle Deltas eines Shards in einer Transaktion. Scheitert der Batch (z.B. Überlauf bei einer Karte), wird jede
+    // Karte einzeln geschrieben, damit eine Karte nicht alle anderen aufhält. Nicht geschriebene Karten bleiben offen
+    private boolean[] write(List<BalanceDelta> deltas) {
+        boolean[] written = new boolean[deltas.size()];
+        shardRouter.onOwnerShards(deltas, BalanceDelta::owner, indexes -> {
+            List<BalanceDelta> shardDeltas = indexes.stream().map(deltas::get).toList();
+            try {
+                int[] updated = transactionTemplate.execute(status -> jdbcRepository.applyDeltas(shardDeltas));
+                for (int i = 0; i < shardDeltas.size(); i++) {
+                    warnIfMissing(shardDeltas.get(i), updated[i]);
+                    written[indexes.get(i)] = true;
+                }
+            } catch (DataAccessException e) {
+                for (int i = 0; i < shardDeltas.size(); i++) {
+                    BalanceDelta delta = shardDeltas.get(i);
+                    try {
+                        int[] updated = transactionTemplate.execute(status -> jdbcRepository.applyDeltas(List.of(delta)));
+                        warnIfMissing(delta, updated[0]);
+                        written[indexes.get(i)] = true;
+                    } catch (DataAccessException itemException) {
+                        log.error("Could not write pending top-ups of cash card {}", delta.id(), itemException);
+                    }
+                }
+            }
+        });
+        return written;
+    }
+
+    // 0 Zeilen: Die Karte wurde nach der Aufladung gelöscht. Das Delta ist dann nicht mehr schreibbar und gilt als erledigt
+    private static void warnIfMissing(BalanceDelta delta, int updatedRows) {
+        if (updatedRows == 0) {
+            log.warn("Dropping pending top-up of {} for missing cash card {}", delta.amount(), delta.id());
+        }
+    }
+
+    private void flushQuietly() {
+        flushRequested.set(false);
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Write-behind flush failed", e);
+        }
+    }
+
+    @Override
+    public void start() {
+        long interval = properties.flushInterval().toNanos();
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cashcard-balance-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.NANOSECONDS);
+        running = true;
+    }
+
+    // Graceful Shutdown: nimmt keine Aufladungen mehr an, wartet auf einen laufenden Flush und schreibt alle offenen Zähler
+    @Override
+    public void stop() {
+        running = false;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Set<Long> failed = flush();
+        for (int attempt = 1; attempt < DRAIN_ATTEMPTS && !failed.isEmpty(); attempt++) {
+            failed = flush();
+        }
+        if (!failed.isEmpty()) {
+            pending.forEach((id, balance) -> {
+                if (balance.unflushed() != 0) {
+                    log.error("Lost pending top-up of {} for cash card {} on shutdown", balance.unflushed(), id);
+                }
+            });
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Niedriger als die Phasen des Webservers: beim Herunterfahren nimmt der Webserver zuerst keine Requests mehr an
+    // und beendet laufende, erst danach wird geleert
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+
+    private static final class PendingBalance {
+        private final String owner;
+        private final LongAdder added = new LongAdder();
+        // Bereits geschriebene Summe. Wird nur vom Flush unter dem Write-Lock geändert
+        private long flushed;
+        // Vom Flush aus pending entfernt, wird nie zurückgesetzt. Nur unter addLock geändert
+        private boolean removed;
+        private final StampedLock lock = new StampedLock();
+        // Aufladungen gegen das Verwerfen des Zählers. Der Read-Lock wird nur von removeIfFlushed blockiert, nicht vom
+        // Schreiben in die Datenbank
+        private final StampedLock addLock = new StampedLock();
+
+        private PendingBalance(String owner) {
+            this.owner = owner;
+        }
+
+        // false, wenn der Flush den Zähler bereits verworfen hat. Der Aufrufer nimmt dann einen neuen Zähler
+        private boolean tryAdd(long amount) {
+            long stamp = addLock.readLock();
+            try {
+                if (removed) {
+                    return false;
+                }
+                added.add(amount);
+                return true;
+            } finally {
+                addLock.unlockRead(stamp);
+            }
+        }
+
+        private long unflushed() {
+            return added.sum() - flushed;
+        }
+    }
+}
@@ -1,6 +1,69 @@
 CREATE TABLE cash_card
 (
     ID     BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
-    AMOUNT NUMBER NOT NULL DEFAULT 0,
-       OWNER    VARCHAR(256) NOT NULL
-);
\ No newline at end of file
+    -- Betrag in Cent (123.45 -> 12345), siehe Money
+    AMOUNT BIGINT NOT NULL DEFAULT 0,
+       OWNER    VARCHAR(256) NOT NULL,
+    VERSION BIGINT NOT NULL DEFAULT 0
+);
+
+-- Alle Listen-Abfragen sind auf den Owner beschränkt und nach (amount, id) sortiert.
+-- Der zusammengesetzte Index erlaubt Keyset-Pagination ohne OFFSET
+CREATE INDEX IDX_CASH_CARD_OWNER_AMOUNT_ID ON cash_card (OWNER, AMOUNT, ID);
+
+-- Journal der Aufladungen im Modus cashcard.balance.mode=JOURNAL. Einträge werden nur angehängt (SEQ steigt),
+-- der Kontostand ist AMOUNT der Karte (Snapshot) plus alle Einträge mit IN_SNAPSHOT = FALSE.
+-- Der Snapshot-Prozess addiert diese Einträge auf AMOUNT und markiert sie, die Kompaktierung löscht alte markierte Einträge
+CREATE TABLE cash_card_transaction
+(
+    SEQ         BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+    CARD_ID     BIGINT NOT NULL,
+    OWNER       VARCHAR(256) NOT NULL,
+    -- Betrag in Cent
+    AMOUNT      BIGINT NOT NULL,
+    CREATED_AT  TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    IN_SNAPSHOT BOOLEAN NOT NULL DEFAULT FALSE
+);
+
+-- Verlauf einer Karte in Sequenzbereichen (GET /cashcards/{id}/transactions)
+CREATE INDEX IDX_CASH_CARD_TRANSACTION_CARD_SEQ ON cash_card_transaction (CARD_ID, SEQ);
+-- Offene Einträge einer Karte beim Lesen und aller Karten beim Snapshot
+CREATE INDEX IDX_CASH_CARD_TRANSACTION_OPEN ON cash_card_transaction (IN_SNAPSHOT, CARD_ID);
+
+-- Summe und Anzahl der Karten pro Owner für GET /cashcards/summary. Wird in derselben Transaktion wie jede Änderung
+-- an cash_card.AMOUNT bzw. jedes Anlegen einer Karte angepasst, der CashCardSummaryVerifier prüft sie gegen cash_card
+CREATE TABLE cash_card_owner_summary
+(
+    OWNER        VARCHAR(256) NOT NULL PRIMARY KEY,
+    -- Summe in Cent
+    TOTAL_AMOUNT BIGINT NOT NULL DEFAULT 0,
+    CARD_COUNT   BIGINT NOT NULL DEFAULT 0
+);
+
+-- Verschieben eines Owners auf diesen Shard (siehe OwnerShardRebalancer). Die Zeile entsteht mit der Kopie, COMMITTED
+-- wird vor dem Umhängen gesetzt, gelöscht wird sie nach dem Räumen des alten Shards. Findet der OwnerShardRouter beim
+-- Start eine Zeile, weiß er so, welche der beiden Kopien gilt
+CREATE TABLE cash_card_owner_move
+(
+    OWNER        VARCHAR(256) NOT NULL PRIMARY KEY,
+    SOURCE_SHARD INT NOT NULL,
+    COMMITTED    BOOLEAN NOT NULL DEFAULT FALSE
+);
+
+-- Gespeicherte Antworten für POST-Requests mit Idempotency-Key (siehe IdempotencyService). Die Zeile wird in derselben
+-- Transaktion wie die Änderung an cash_card geschrieben, eine Wiederholung des Requests liefert die gespeicherte Antwort.
+-- Zeilen älter als cashcard.idempotency.ttl werden regelmäßig gelöscht
+CREATE TABLE cash_card_idempotency
+(
+    OWNER           VARCHAR(256) NOT NULL,
+    IDEMPOTENCY_KEY VARCHAR(255) NOT NULL,
+    -- Identifiziert den Request (Endpunkt, Karte, Betrag), derselbe Key mit anderem Request wird abgelehnt
+    FINGERPRINT     VARCHAR(256) NOT NULL,
+    STATUS          INT,
+    LOCATION        VARCHAR(2048),
+    BODY            VARCHAR(4096),
+    CREATED_AT      TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (OWNER, IDEMPOTENCY_KEY)
+);
+
+CREATE INDEX IDX_CASH_CARD_IDEMPOTENCY_CREATED_AT ON cash_card_idempotency (CREATED_AT);
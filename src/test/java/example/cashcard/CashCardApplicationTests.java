@@ -10,6 +10,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.json.JacksonTester;
 import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.annotation.DirtiesContext;
@@ -33,7 +36,9 @@ class CashCardApplicationTests {
     public static final String USERNAME_2 = "owner2";
     public static final String USERNAME_HANK = "hank-owns-no-cards";
     private static final List<Long> INSERTED_IDS = List.of(99L, 100L, 101L);
+    // Im JSON als Dezimalzahl, in CashCard und in der Datenbank in Cent
     private static final List<Double> INSERTED_AMOUNTS = List.of(223.45, 123.45, 323.45);
+    private static final List<Long> INSERTED_CENTS = List.of(22345L, 12345L, 32345L);
     private static final String PASSWORD_1 = "12345";
     private static final String PASSWORD_2 = "22345";
     private static final String PASSWORD_HANK = "54321";
@@ -45,7 +50,7 @@ class CashCardApplicationTests {
         for (int i = 0; i < INSERTED_IDS.size(); i++) {
             CashCard cashCard = CashCard.builder()
                     .id(INSERTED_IDS.get(i))
-                    .amount(INSERTED_AMOUNTS.get(i))
+                    .amount(INSERTED_CENTS.get(i))
                     .owner(INSERTED_OWNERS.get(i))
                     .build();
             INSERTED_CASH_CARDS.add(cashCard);
@@ -56,6 +61,8 @@ class CashCardApplicationTests {
     TestRestTemplate restTemplate;
     @Autowired
     ObjectMapper objectMapper;
+    @Autowired
+    ICashCardRepository cashCardRepository;
     // mit @JacksonTest wird JacksonTester durch den Spring IoC initialisiert. Durch @SpringBootTest wird dies jedoch nicht als Bean initialisiert
     private JacksonTester<CashCard> json;
 
@@ -143,9 +150,149 @@ class CashCardApplicationTests {
         assertThat(amounts).containsExactly(INSERTED_AMOUNTS.get(1), INSERTED_AMOUNTS.get(0));
     }
 
+    @Test
+    void shouldWalkAllCashCardsWithCursor() {
+        ResponseEntity<String> firstPage = restTemplate
+                .withBasicAuth(USERNAME_1, PASSWORD_1)
+                .getForEntity("/cashcards?size=1", String.class);
+        assertThat(firstPage.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(JsonPath.parse(firstPage.getBody()).<Double>read("$[0].amount")).isEqualTo(INSERTED_AMOUNTS.get(1));
+        String cursor = firstPage.getHeaders().getFirst(CashCardController.NEXT_CURSOR_HEADER);
+        assertNotNull(cursor);
+
+        ResponseEntity<String> secondPage = restTemplate
+                .withBasicAuth(USERNAME_1, PASSWORD_1)
+                .getForEntity("/cashcards?size=1&cursor=" + cursor, String.class);
+        assertThat(secondPage.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(JsonPath.parse(secondPage.getBody()).<Double>read("$[0].amount")).isEqualTo(INSERTED_AMOUNTS.get(0));
+        cursor = secondPage.getHeaders().getFirst(CashCardController.NEXT_CURSOR_HEADER);
+        assertNotNull(cursor);
+
+        // Hinter der letzten Karte folgt eine leere Seite ohne weiteren Cursor
+        ResponseEntity<String> lastPage = restTemplate
+                .withBasicAuth(USERNAME_1, PASSWORD_1)
+                .getForEntity("/cashcards?size=1&cursor=" + cursor, String.class);
+        assertThat(JsonPath.parse(lastPage.getBody()).<Integer>read("$.length()")).isEqualTo(0);
+        assertThat(lastPage.getHeaders().containsKey(CashCardController.NEXT_CURSOR_HEADER)).isFalse();
+    }
+
+    @Test
+    void shouldReturnTotalCountOnlyWhenRequested() {
+        ResponseEntity<String> withoutTotal = restTemplate
+                .withBasicAuth(USERNAME_1, PASSWORD_1)
+                .getForEntity("/cashcards?size=1", String.class);
+        assertThat(withoutTotal.getHeaders().containsKey(CashCardController.TOTAL_COUNT_HEADER)).isFalse();
+
+        ResponseEntity<String> withTotal = restTemplate
+                .withBasicAuth(USERNAME_1, PASSWORD_1)
+                .getForEntity("/cashcards?size=1&total=true", String.class);
+        assertThat(withTotal.getHeaders().getFirst(CashCardController.TOTAL_COUNT_HEADER)).isEqualTo("2");
+    }
+
+    @Test
+    void shouldRejectAnInvalidCursor() {
+        ResponseEntity<String> response = restTemplate
+                .withBasicAuth(USERNAME_1, PASSWORD_1)
+                .getForEntity("/cashcards?cursor=not-a-cursor", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void shouldExportAllCashCardsAsNdjson() throws Exception {
+        ResponseEntity<String> response = restTemplate
+                .withBasicAuth(USERNAME_1, PASSWORD_1)
+                .getForEntity("/cashcards/export", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getContentType()).isEqualTo(CashCardController.NDJSON);
+
+        // Eine Karte pro Zeile, sortiert nach amount, nur die Karten des Owners
+        String[] lines = response.getBody().split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(objectMapper.readValue(lines[0], CashCard.class).getId()).isEqualTo(INSERTED_IDS.get(1));
+        assertThat(objectMapper.readValue(lines[1], CashCard.class).getId()).isEqualTo(INSERTED_IDS.get(0));
+    }
+
+    @Test
+    void shouldExportOnlyCashCardsInAmountRange() throws Exception {
+        ResponseEntity<String> response = restTemplate
+                .withBasicAuth(USERNAME_1, PASSWORD_1)
+                .getForEntity("/cashcards/export?minAmount=200&maxAmount=300", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        String[] lines = response.getBody().split("\n");
+        assertThat(lines).hasSize(1);
+        assertThat(objectMapper.readValue(lines[0], CashCard.class).getId()).isEqualTo(INSERTED_IDS.get(0));
+    }
+
+    @Test
+    void shouldAnswerConditionalGetOfACashCardWithNotModified() {
+        String url = "/cashcards/" + INSERTED_IDS.get(0);
+        ResponseEntity<String> first = restTemplate.withBasicAuth(USERNAME_1, PASSWORD_1).getForEntity(url, String.class);
+        String etag = first.getHeaders().getETag();
+        assertNotNull(etag);
+        assertThat(first.getHeaders().getCacheControl()).contains("no-cache").contains("private").doesNotContain("no-store");
+
+        ResponseEntity<String> unchanged = getIfNoneMatch(url, etag);
+        assertThat(unchanged.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(unchanged.getBody()).isNull();
+        assertThat(unchanged.getHeaders().getETag()).isEqualTo(etag);
+
+        // Nach einer Aufladung passt das ETag nicht mehr
+        restTemplate.withBasicAuth(USERNAME_1, PASSWORD_1)
+                .postForEntity("/cashcards/balance/" + INSERTED_IDS.get(0), Map.of("amount", 1), String.class);
+        ResponseEntity<String> changed = getIfNoneMatch(url, etag);
+        assertThat(changed.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(changed.getHeaders().getETag()).isNotEqualTo(etag);
+    }
+
+    @Test
+    void shouldAnswerConditionalGetOfAPageWithNotModified() {
+        String url = "/cashcards?size=1&total=true";
+        String etag = restTemplate.withBasicAuth(USERNAME_1, PASSWORD_1).getForEntity(url, String.class)
+                .getHeaders().getETag();
+        assertNotNull(etag);
+        assertThat(getIfNoneMatch(url, etag).getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        // Andere Seite, anderes ETag
+        assertThat(getIfNoneMatch("/cashcards?size=1&page=1&total=true", etag).getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        // Eine neue Karte ändert X-Total-Count, auch wenn die erste Seite gleich bleibt
+        restTemplate.withBasicAuth(USERNAME_1, PASSWORD_1)
+                .postForEntity("/cashcards", new CashCard(null, 999999, null), String.class);
+        assertThat(getIfNoneMatch(url, etag).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void shouldReturnTheOwnersSummary() {
+        ResponseEntity<String> response = restTemplate
+                .withBasicAuth(USERNAME_1, PASSWORD_1)
+                .getForEntity("/cashcards/summary", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        DocumentContext documentContext = JsonPath.parse(response.getBody());
+        double totalAmount = documentContext.read("$.totalAmount");
+        assertThat(totalAmount).isEqualTo(346.90);
+        Number cardCount = documentContext.read("$.cardCount");
+        assertThat(cardCount.longValue()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldReturnTransactionsOnlyForOwnCashCards() {
+        // Im Modus DIRECT wird nichts ins Journal geschrieben, der Verlauf ist leer
+        ResponseEntity<String> own = restTemplate
+                .withBasicAuth(USERNAME_1, PASSWORD_1)
+                .getForEntity("/cashcards/" + INSERTED_IDS.get(0) + "/transactions", String.class);
+        assertThat(own.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(JsonPath.parse(own.getBody()).read("$.length()", Integer.class)).isZero();
+
+        ResponseEntity<String> foreign = restTemplate
+                .withBasicAuth(USERNAME_1, PASSWORD_1)
+                .getForEntity("/cashcards/" + INSERTED_IDS.get(2) + "/transactions", String.class);
+        assertThat(foreign.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
     @Test
     void createNewCashCardTest() {
-        CashCard requestedCashCard = new CashCard(null, 250.0, "someOtherUser");
+        CashCard requestedCashCard = new CashCard(null, 25000, "someOtherUser");
         ResponseEntity<CashCard> response = restTemplate
                 .withBasicAuth(USERNAME_1, PASSWORD_1)
                 .postForEntity("/cashcards", requestedCashCard, CashCard.class);
@@ -153,9 +300,9 @@ class CashCardApplicationTests {
         CashCard cashCard = response.getBody();
         assertNotNull(cashCard);
         assertNotNull(cashCard.getId());
-        assertThat(response.getHeaders().getLocation() != null);
-        assertThat(response.getHeaders().getLocation().toString().equals("/cashcards/" + cashCard.getId()));
-        assertThat(cashCard.getAmount()).isEqualTo(0);
+        assertNotNull(response.getHeaders().getLocation());
+        assertThat(response.getHeaders().getLocation().getPath()).isEqualTo("/cashcards/" + cashCard.getId());
+        assertThat(cashCard.getAmount()).isEqualTo(25000);
         assertThat(cashCard.getOwner()).isEqualTo(USERNAME_1);
 
         ResponseEntity<CashCard> responseForCreatedEntity = restTemplate
@@ -168,7 +315,7 @@ class CashCardApplicationTests {
     void balanceTest() {
         Map<String, String> map = new HashMap<>();
         double addedAmount = 30.0;
-        double expectedTotalAmount = 30.0 + INSERTED_CASH_CARDS.get(1).getAmount();
+        long expectedTotalAmount = 3000 + INSERTED_CASH_CARDS.get(1).getAmount();
         map.put("amount", String.valueOf(addedAmount));
 
         ResponseEntity<CashCard> getResponse = restTemplate
@@ -181,6 +328,84 @@ class CashCardApplicationTests {
         assertEquals(expectedTotalAmount, balancedCashCard.getAmount());
     }
 
+    @Test
+    void overflowingBalanceIsRejectedWithBadRequest() {
+        long id = INSERTED_IDS.get(0);
+        ResponseEntity<String> first = restTemplate.withBasicAuth(USERNAME_1, PASSWORD_1)
+                .postForEntity("/cashcards/balance/" + id, Map.of("amount", 50_000_000_000_000_000.0), String.class);
+        assertThat(first.getStatusCode()).isEqualTo(HttpStatus.OK);
+        ResponseEntity<String> second = restTemplate.withBasicAuth(USERNAME_1, PASSWORD_1)
+                .postForEntity("/cashcards/balance/" + id, Map.of("amount", 50_000_000_000_000_000.0), String.class);
+        assertThat(second.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void createBatchTest() {
+        List<CashCard> requested = new ArrayList<>();
+        requested.add(new CashCard(null, 1000, "someOtherUser"));
+        requested.add(null);
+        requested.add(new CashCard(null, 2000, null));
+        ResponseEntity<String> response = restTemplate
+                .withBasicAuth(USERNAME_1, PASSWORD_1)
+                .postForEntity("/cashcards/batch", requested, String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        DocumentContext documentContext = JsonPath.parse(response.getBody());
+        JSONArray statuses = documentContext.read("$[*].status");
+        assertThat(statuses).containsExactly(201, 400, 201);
+        JSONArray owners = documentContext.read("$[*].cashCard.owner");
+        assertThat(owners).containsExactly(USERNAME_1, USERNAME_1);
+
+        Number createdId = documentContext.read("$[2].cashCard.id");
+        ResponseEntity<CashCard> created = restTemplate
+                .withBasicAuth(USERNAME_1, PASSWORD_1)
+                .getForEntity("/cashcards/" + createdId, CashCard.class);
+        assertThat(created.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(created.getBody().getAmount()).isEqualTo(2000);
+    }
+
+    @Test
+    void balanceBatchTest() {
+        List<Map<String, Object>> operations = List.of(
+                Map.of("id", INSERTED_IDS.get(0), "amount", 10.0),
+                // Karte von owner2: muss sich wie ein unbekannter Eintrag verhalten
+                Map.of("id", INSERTED_IDS.get(2), "amount", 10.0),
+                Map.of("id", INSERTED_IDS.get(1), "amount", 5.0),
+                Map.of("id", 1000L, "amount", 1.0));
+        ResponseEntity<String> response = restTemplate
+                .withBasicAuth(USERNAME_1, PASSWORD_1)
+                .postForEntity("/cashcards/balance/batch", operations, String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        DocumentContext documentContext = JsonPath.parse(response.getBody());
+        JSONArray statuses = documentContext.read("$[*].status");
+        assertThat(statuses).containsExactly(200, 404, 200, 404);
+        double amount = documentContext.read("$[0].cashCard.amount");
+        assertThat(amount).isEqualTo(INSERTED_AMOUNTS.get(0) + 10.0);
+
+        // Die Karte von owner2 darf nicht verändert worden sein
+        CashCard foreignCard = cashCardRepository.findById(INSERTED_IDS.get(2)).orElseThrow();
+        assertThat(foreignCard.getAmount()).isEqualTo(INSERTED_CENTS.get(2));
+    }
+
+    @Test
+    void balanceBatchReportsStableReasonsInsteadOfDriverMessages() {
+        // Zusammen übersteigen die beiden Aufladungen den Wertebereich von AMOUNT
+        List<Map<String, Object>> operations = List.of(
+                Map.of("id", INSERTED_IDS.get(0), "amount", 50_000_000_000_000_000.0),
+                Map.of("id", INSERTED_IDS.get(0), "amount", 50_000_000_000_000_000.0));
+        ResponseEntity<String> response = restTemplate
+                .withBasicAuth(USERNAME_1, PASSWORD_1)
+                .postForEntity("/cashcards/balance/batch", operations, String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        DocumentContext documentContext = JsonPath.parse(response.getBody());
+        JSONArray statuses = documentContext.read("$[*].status");
+        assertThat(statuses).containsExactly(200, 400);
+        String error = documentContext.read("$[1].error");
+        assertThat(error).isEqualTo("overflow");
+    }
+
     @Test
     void shouldNotReturnACashCardWithAnUnknownId() {
         ResponseEntity<String> response = restTemplate
@@ -219,7 +444,7 @@ class CashCardApplicationTests {
         assertNotNull(cashCard);
         assertThat(cashCard.getOwner()).isEqualTo(USERNAME_1);
         assertThat(cashCard.getId()).isEqualTo(INSERTED_IDS.get(0));
-        assertThat(cashCard.getAmount()).isEqualTo(INSERTED_AMOUNTS.get(0));
+        assertThat(cashCard.getAmount()).isEqualTo(INSERTED_CENTS.get(0));
     }
 
     @Test
@@ -231,5 +456,10 @@ class CashCardApplicationTests {
         assertThat(response.getBody()).isBlank();
     }
 
-
+    private ResponseEntity<String> getIfNoneMatch(String url, String etag) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch(etag);
+        return restTemplate.withBasicAuth(USERNAME_1, PASSWORD_1)
+                .exchange(url, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+    }
 }
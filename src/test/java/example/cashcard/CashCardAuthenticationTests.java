@@ -0,0 +1,169 @@
+package example.cashcard;
+
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.provisioning.UserDetailsManager;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "cashcard.security.token.enabled=true")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CashCardAuthenticationTests {
+
+    private static final String USERNAME_1 = "owner1";
+    private static final String PASSWORD_1 = "12345";
+
+    @Autowired
+    TestRestTemplate restTemplate;
+    @Autowired
+    CachingAuthenticationProvider cachingAuthenticationProvider;
+    @Autowired
+    UserDetailsService userDetailsService;
+    @Autowired
+    PasswordEncoder passwordEncoder;
+
+    @Test
+    void repeatedBasicAuthIsServedFromCache() {
+        getCard(USERNAME_1, PASSWORD_1);
+        long missesAfterFirstRequest = cachingAuthenticationProvider.missCount();
+
+        ResponseEntity<String> response = getCard(USERNAME_1, PASSWORD_1);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(cachingAuthenticationProvider.missCount()).isEqualTo(missesAfterFirstRequest);
+        assertThat(cachingAuthenticationProvider.hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    void oldPasswordIsRejectedAfterPasswordChange() {
+        assertThat(getCard(USERNAME_1, PASSWORD_1).getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        ((UserDetailsManager) userDetailsService).updateUser(User.builder()
+                .username(USERNAME_1)
+                .password(passwordEncoder.encode("changed"))
+                .roles(UserRole.CARD_OWNER.toString())
+                .build());
+
+        assertThat(getCard(USERNAME_1, PASSWORD_1).getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+        assertThat(getCard(USERNAME_1, "changed").getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void authenticationInFlightDuringPasswordChangeIsNotCached() throws Exception {
+        DaoAuthenticationProvider bcrypt = new DaoAuthenticationProvider(userDetailsService);
+        bcrypt.setPasswordEncoder(passwordEncoder);
+        CountDownLatch checked = new CountDownLatch(1);
+        CountDownLatch changed = new CountDownLatch(1);
+        CachingAuthenticationProvider provider = new CachingAuthenticationProvider(new AuthenticationProvider() {
+            @Override
+            public Authentication authenticate(Authentication authentication) {
+                Authentication result = bcrypt.authenticate(authentication);
+                checked.countDown();
+                try {
+                    changed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return result;
+            }
+
+            @Override
+            public boolean supports(Class<?> authentication) {
+                return bcrypt.supports(authentication);
+            }
+        }, new CashCardSecurityProperties.AuthCache(true, Duration.ofMinutes(5), 100), new SimpleMeterRegistry());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // Das alte Passwort ist geprüft, die Anmeldung aber noch nicht gecacht
+            Future<Authentication> inFlight = executor.submit(() -> provider.authenticate(
+                    UsernamePasswordAuthenticationToken.unauthenticated(USERNAME_1, PASSWORD_1)));
+            assertThat(checked.await(10, TimeUnit.SECONDS)).isTrue();
+            ((UserDetailsManager) userDetailsService).updateUser(User.builder()
+                    .username(USERNAME_1)
+                    .password(passwordEncoder.encode("changed"))
+                    .roles(UserRole.CARD_OWNER.toString())
+                    .build());
+            provider.onCredentialsChanged(new UserCredentialsChangedEvent(USERNAME_1));
+            changed.countDown();
+            assertThat(inFlight.get(10, TimeUnit.SECONDS).isAuthenticated()).isTrue();
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThatThrownBy(() -> provider.authenticate(
+                UsernamePasswordAuthenticationToken.unauthenticated(USERNAME_1, PASSWORD_1)))
+                .isInstanceOf(BadCredentialsException.class);
+        assertThat(provider.hitCount()).isZero();
+    }
+
+    @Test
+    void tokenCanBeUsedInsteadOfBasicAuth() {
+        ResponseEntity<String> tokenResponse = restTemplate
+                .withBasicAuth(USERNAME_1, PASSWORD_1)
+                .postForEntity("/auth/token", null, String.class);
+        assertThat(tokenResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        DocumentContext documentContext = JsonPath.parse(tokenResponse.getBody());
+        String token = documentContext.read("$.token");
+
+        ResponseEntity<String> response = getCardWithToken(token);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        // Manipulierte Signatur wird nicht akzeptiert
+        ResponseEntity<String> tampered = getCardWithToken(token.substring(0, token.length() - 2) + "xx");
+        assertThat(tampered.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+    }
+
+    @Test
+    void tokenCannotBeExchangedForANewToken() {
+        String token = JsonPath.parse(restTemplate
+                .withBasicAuth(USERNAME_1, PASSWORD_1)
+                .postForEntity("/auth/token", null, String.class).getBody()).read("$.token");
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(token);
+        ResponseEntity<String> refreshed = restTemplate.exchange("/auth/token", HttpMethod.POST,
+                new HttpEntity<>(headers), String.class);
+        assertThat(refreshed.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+    }
+
+    private ResponseEntity<String> getCard(String username, String password) {
+        return restTemplate
+                .withBasicAuth(username, password)
+                .getForEntity("/cashcards/99", String.class);
+    }
+
+    private ResponseEntity<String> getCardWithToken(String token) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(token);
+        return restTemplate.exchange("/cashcards/99", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+    }
+}
@@ -0,0 +1,80 @@
+package example.cashcard;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CashCardCacheTests {
+
+    private static final long CARD_ID = 99L;
+    private static final String OWNER = "owner1";
+
+    @Autowired
+    CashCardService cashCardService;
+    @Autowired
+    CashCardBatchService cashCardBatchService;
+    @Autowired
+    ICashCardRepository cashCardRepository;
+    @Autowired
+    CashCardCache cashCardCache;
+
+    @Test
+    void secondReadIsServedFromCache() {
+        CashCard first = cashCardService.findById(CARD_ID, OWNER).orElseThrow();
+        assertThat(cashCardCache.size()).isEqualTo(1);
+
+        // Eine Änderung an der herausgegebenen Instanz darf den Cache nicht verändern
+        first.setAmount(-1);
+        assertThat(cashCardService.findById(CARD_ID, OWNER).orElseThrow().getAmount()).isEqualTo(22345);
+    }
+
+    @Test
+    void cacheIsKeyedByOwner() {
+        cashCardService.findById(CARD_ID, OWNER).orElseThrow();
+        assertThat(cashCardService.findById(CARD_ID, "owner2")).isEmpty();
+    }
+
+    @Test
+    void writesUpdateTheCachedCard() {
+        cashCardService.findById(CARD_ID, OWNER).orElseThrow();
+
+        cashCardService.balance(CARD_ID, OWNER, 1000);
+        assertThat(cashCardService.findById(CARD_ID, OWNER).orElseThrow().getAmount()).isEqualTo(23345);
+
+        cashCardBatchService.balanceAll(OWNER, List.of(new BalanceOperation(CARD_ID, 500L)));
+        assertThat(cashCardService.findById(CARD_ID, OWNER).orElseThrow().getAmount()).isEqualTo(23845);
+
+        CashCard viaSave = cashCardRepository.findByIdAndOwner(CARD_ID, OWNER).orElseThrow();
+        viaSave.balance(100);
+        cashCardRepository.save(viaSave);
+        assertThat(cashCardService.findById(CARD_ID, OWNER).orElseThrow().getAmount()).isEqualTo(23945);
+    }
+
+    @Test
+    void replicaReadsAreNotCached() {
+        ReadReplicaRouter.routeReadsToReplicas();
+        try {
+            assertThat(cashCardService.findById(CARD_ID, OWNER)).isPresent();
+            assertThat(cashCardCache.size()).isZero();
+        } finally {
+            ReadReplicaRouter.clearRoute();
+        }
+
+        // Von der primären DataSource geladene Karten bekommen auch Replikat-Leser aus dem Cache
+        cashCardService.findById(CARD_ID, OWNER).orElseThrow();
+        ReadReplicaRouter.routeReadsToReplicas();
+        try {
+            assertThat(cashCardService.findById(CARD_ID, OWNER).orElseThrow().getAmount()).isEqualTo(22345);
+            assertThat(cashCardCache.size()).isEqualTo(1);
+        } finally {
+            ReadReplicaRouter.clearRoute();
+        }
+    }
+}
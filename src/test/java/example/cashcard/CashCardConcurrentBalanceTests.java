@@ -0,0 +1,74 @@
+package example.cashcard;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Ohne Web-Umgebung, geprüft wird nur die Korrektheit. Die Geschwindigkeit misst BalanceWritePathBenchmark
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@DirtiesContext
+class CashCardConcurrentBalanceTests {
+
+    private static final long CARD_ID = 99L;
+    private static final String OWNER = "owner1";
+    private static final int THREADS = 8;
+    private static final int UPDATES_PER_THREAD = 250;
+
+    @Autowired
+    ICashCardRepository cashCardRepository;
+
+    @Test
+    void atomicBalanceLosesNoUpdatesUnderConcurrency() throws Exception {
+        long before = cashCardRepository.findByIdAndOwner(CARD_ID, OWNER).orElseThrow().getAmount();
+
+        hammer(() -> cashCardRepository.balanceByIdAndOwner(CARD_ID, OWNER, 100).orElseThrow());
+
+        CashCard after = cashCardRepository.findByIdAndOwner(CARD_ID, OWNER).orElseThrow();
+        assertThat(after.getAmount()).isEqualTo(before + 100L * THREADS * UPDATES_PER_THREAD);
+    }
+
+    @Test
+    void readModifyWriteDetectsConflictsThroughVersion() {
+        CashCard first = cashCardRepository.findByIdAndOwner(CARD_ID, OWNER).orElseThrow();
+        CashCard second = cashCardRepository.findByIdAndOwner(CARD_ID, OWNER).orElseThrow();
+
+        first.balance(100);
+        cashCardRepository.save(first);
+
+        // second wurde vor dem Speichern von first gelesen und trägt daher eine veraltete Version
+        second.balance(100);
+        assertThrows(OptimisticLockingFailureException.class, () -> cashCardRepository.save(second));
+    }
+
+    private void hammer(Callable<CashCard> update) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < UPDATES_PER_THREAD; i++) {
+                        update.call();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package example.cashcard;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "cashcard.database.limiter.max-concurrent=2",
+        "cashcard.database.limiter.acquire-timeout=1s"})
+class CashCardDatabaseLimiterTests {
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+    @Autowired
+    CashCardService cashCardService;
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    void neverMoreConnectionsThanPermits() throws Exception {
+        AtomicInteger open = new AtomicInteger();
+        AtomicInteger maxOpen = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 20; i++) {
+                        transactionTemplate.executeWithoutResult(status -> {
+                            maxOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+                            // Mehrere Aufrufe in einer Transaktion belegen nur ein Permit
+                            jdbcTemplate.queryForObject("SELECT COUNT(*) FROM cash_card", Long.class);
+                            cashCardService.findById(99L, "owner1");
+                            open.decrementAndGet();
+                        });
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(maxOpen.get()).isBetween(1, 2);
+        assertThat(meterRegistry.get("cashcard.db.limiter.active").gauge().value()).isZero();
+        assertThat(meterRegistry.get(DatabaseConcurrencyLimiter.WAIT_TIMER).tag("outcome", "acquired").timer().count())
+                .isPositive();
+    }
+
+    @Test
+    void waitingLongerThanTheAcquireTimeoutFails() throws Exception {
+        CountDownLatch holding = new CountDownLatch(2);
+        CountDownLatch finish = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int t = 0; t < 2; t++) {
+                executor.submit(() -> transactionTemplate.executeWithoutResult(status -> {
+                    jdbcTemplate.queryForObject("SELECT 1", Integer.class);
+                    holding.countDown();
+                    try {
+                        finish.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+            }
+            assertThat(holding.await(10, TimeUnit.SECONDS)).isTrue();
+            double timeouts = timeouts();
+            assertThatThrownBy(() -> jdbcTemplate.queryForObject("SELECT 1", Integer.class))
+                    .isInstanceOf(CannotGetJdbcConnectionException.class);
+            assertThat(timeouts()).isEqualTo(timeouts + 1);
+        } finally {
+            finish.countDown();
+            executor.shutdown();
+        }
+        // Nach der Freigabe bekommt der nächste Aufruf wieder eine Verbindung
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(jdbcTemplate.queryForObject("SELECT 1", Integer.class)).isEqualTo(1);
+    }
+
+    private double timeouts() {
+        return meterRegistry.get(DatabaseConcurrencyLimiter.WAIT_TIMER).tag("outcome", "timeout").timer().count();
+    }
+}
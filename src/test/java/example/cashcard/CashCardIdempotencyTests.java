@@ -0,0 +1,193 @@
+package example.cashcard;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CashCardIdempotencyTests {
+
+    @Autowired
+    TestRestTemplate restTemplate;
+    @Autowired
+    IdempotencyService idempotencyService;
+    @Autowired
+    CashCardJdbcRepository cashCardJdbcRepository;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+    @Autowired
+    OwnerShardRouter shardRouter;
+    @Autowired
+    ObjectMapper objectMapper;
+    @Autowired
+    CashCardIdempotencyProperties properties;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    void repeatedCreateReturnsTheFirstCard() {
+        long cards = cards();
+        ResponseEntity<String> first = post("/cashcards", Map.of("amount", 250.00), "create-1");
+        ResponseEntity<String> replayed = post("/cashcards", Map.of("amount", 250.00), "create-1");
+
+        assertThat(first.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        assertThat(replayed.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        assertThat(replayed.getHeaders().getLocation()).isEqualTo(first.getHeaders().getLocation());
+        assertThat(replayed.getBody()).isEqualTo(first.getBody());
+        assertThat(replayed.getHeaders().getFirst(IdempotencyService.REPLAYED_HEADER)).isEqualTo("true");
+        assertThat(first.getHeaders().containsKey(IdempotencyService.REPLAYED_HEADER)).isFalse();
+        assertThat(cards()).isEqualTo(cards + 1);
+
+        // Ohne Key wie bisher
+        post("/cashcards", Map.of("amount", 250.00), null);
+        assertThat(cards()).isEqualTo(cards + 2);
+    }
+
+    @Test
+    void repeatedBalanceIsAppliedOnce() {
+        long amount = amountOf99();
+        ResponseEntity<String> first = post("/cashcards/balance/99", Map.of("amount", 1.00), "balance-1");
+        ResponseEntity<String> replayed = post("/cashcards/balance/99", Map.of("amount", 1.00), "balance-1");
+
+        assertThat(first.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(replayed.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(replayed.getBody()).isEqualTo(first.getBody());
+        assertThat(amountOf99()).isEqualTo(amount + 100);
+        assertThat(meterRegistry.get(IdempotencyService.REPLAY_COUNTER).counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void sameKeyWithAnotherRequestIsRejected() {
+        long amount = amountOf99();
+        assertThat(post("/cashcards/balance/99", Map.of("amount", 1.00), "balance-1").getStatusCode())
+                .isEqualTo(HttpStatus.OK);
+        assertThat(post("/cashcards/balance/99", Map.of("amount", 2.00), "balance-1").getStatusCode())
+                .isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+        assertThat(post("/cashcards", Map.of("amount", 1.00), "balance-1").getStatusCode())
+                .isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+        assertThat(amountOf99()).isEqualTo(amount + 100);
+
+        // Keys gelten pro Owner, ein 404 wird nicht gespeichert
+        assertThat(restTemplate.withBasicAuth("hank-owns-no-cards", "54321")
+                .postForEntity("/cashcards/balance/99", request(Map.of("amount", 1.00), "balance-1"), String.class)
+                .getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM cash_card_idempotency WHERE OWNER = 'hank-owns-no-cards'", Long.class)).isZero();
+    }
+
+    @Test
+    void concurrentDuplicatesWaitForTheFirstRequest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger executions = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<ResponseEntity<CashCard>> first = executor.submit(() -> idempotencyService.execute("owner1", "key",
+                    "fingerprint", () -> {
+                        executions.incrementAndGet();
+                        started.countDown();
+                        await(release);
+                        return ResponseEntity.ok(new CashCard(99L, 12445, "owner1"));
+                    }));
+            assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+            Future<?>[] duplicates = new Future<?>[3];
+            for (int i = 0; i < duplicates.length; i++) {
+                duplicates[i] = executor.submit(() -> idempotencyService.execute("owner1", "key", "fingerprint", () -> {
+                    executions.incrementAndGet();
+                    return ResponseEntity.ok(new CashCard(99L, 0, "owner1"));
+                }));
+            }
+            Thread.sleep(200);
+            for (Future<?> duplicate : duplicates) {
+                assertThat(duplicate.isDone()).isFalse();
+            }
+            release.countDown();
+
+            assertThat(first.get(10, TimeUnit.SECONDS).getBody().getAmount()).isEqualTo(12445);
+            for (Future<?> duplicate : duplicates) {
+                ResponseEntity<?> replayed = (ResponseEntity<?>) duplicate.get(10, TimeUnit.SECONDS);
+                assertThat(((CashCard) replayed.getBody()).getAmount()).isEqualTo(12445);
+            }
+            assertThat(executions).hasValue(1);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void storedResponsesSurviveARestartUntilPurged() {
+        long amount = amountOf99();
+        ResponseEntity<String> first = post("/cashcards/balance/99", Map.of("amount", 1.00), "balance-1");
+
+        // Neue Instanz mit leerem Speicher, die Antwort kommt aus cash_card_idempotency
+        IdempotencyService restarted = new IdempotencyService(cashCardJdbcRepository, transactionTemplate, shardRouter,
+                objectMapper, properties, meterRegistry);
+        AtomicInteger executions = new AtomicInteger();
+        ResponseEntity<CashCard> replayed = restarted.execute("owner1", "balance-1", "balance:99:100", () -> {
+            executions.incrementAndGet();
+            return ResponseEntity.ok(new CashCard(99L, 0, "owner1"));
+        });
+        assertThat(executions).hasValue(0);
+        assertThat(replayed.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(replayed.getBody().getAmount()).isEqualTo(amount + 100);
+        assertThat(first.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        // Noch nicht abgelaufen
+        assertThat(idempotencyService.purge()).isZero();
+        jdbcTemplate.update("UPDATE cash_card_idempotency SET CREATED_AT = DATEADD('DAY', -2, CREATED_AT)");
+        assertThat(idempotencyService.purge()).isEqualTo(1);
+    }
+
+    private ResponseEntity<String> post(String path, Map<String, Object> body, String idempotencyKey) {
+        return restTemplate.withBasicAuth("owner1", "12345")
+                .postForEntity(path, request(body, idempotencyKey), String.class);
+    }
+
+    private static HttpEntity<Map<String, Object>> request(Map<String, Object> body, String idempotencyKey) {
+        HttpHeaders headers = new HttpHeaders();
+        if (idempotencyKey != null) {
+            headers.set(IdempotencyService.IDEMPOTENCY_KEY_HEADER, idempotencyKey);
+        }
+        return new HttpEntity<>(body, headers);
+    }
+
+    private long cards() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM cash_card", Long.class);
+    }
+
+    private long amountOf99() {
+        return jdbcTemplate.queryForObject("SELECT AMOUNT FROM cash_card WHERE ID = 99", Long.class);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package example.cashcard;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+// Snapshot und Kompaktierung laufen nur, wenn die Tests sie aufrufen
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "cashcard.balance.mode=JOURNAL",
+        "cashcard.balance.journal.snapshot-interval=1h",
+        "cashcard.balance.journal.compaction-interval=1h",
+        "cashcard.balance.journal.retention=0s"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CashCardJournalTests {
+
+    private static final long CARD_ID = 99L;
+    private static final String OWNER = "owner1";
+    private static final long INITIAL_AMOUNT = 22345;
+
+    @Autowired
+    CashCardService cashCardService;
+    @Autowired
+    ICashCardRepository cashCardRepository;
+    @Autowired
+    CashCardJdbcRepository cashCardJdbcRepository;
+    @Autowired
+    BalanceJournal journal;
+    @Autowired
+    CashCardSummaryVerifier summaryVerifier;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Test
+    void balanceIsSnapshotPlusOpenJournalEntries() {
+        cashCardService.balance(CARD_ID, OWNER, 1000);
+        assertThat(cashCardService.balance(CARD_ID, OWNER, 500).orElseThrow().getAmount())
+                .isEqualTo(INITIAL_AMOUNT + 1500);
+        // Die Karte selbst wurde nicht geändert
+        assertThat(snapshotAmount()).isEqualTo(INITIAL_AMOUNT);
+
+        assertThat(journal.snapshot()).isEqualTo(2);
+        assertThat(snapshotAmount()).isEqualTo(INITIAL_AMOUNT + 1500);
+        assertThat(cashCardService.findById(CARD_ID, OWNER).orElseThrow().getAmount()).isEqualTo(INITIAL_AMOUNT + 1500);
+        // Übernommene Einträge werden nicht erneut übernommen
+        assertThat(journal.snapshot()).isZero();
+    }
+
+    @Test
+    void listAndExportIncludeOpenJournalEntries() {
+        cashCardService.balance(CARD_ID, OWNER, 20000);
+
+        List<CashCard> stored = cashCardRepository.findByOwner(OWNER, PageRequest.of(0, 10, Sort.by("id")));
+        assertThat(cashCardService.withCurrentAmounts(stored, OWNER))
+                .extracting(CashCard::getId, CashCard::getAmount)
+                .containsExactly(tuple(CARD_ID, INITIAL_AMOUNT + 20000), tuple(100L, 12345L));
+
+        List<CashCard> exported = new ArrayList<>();
+        assertThat(cashCardService.export(OWNER, 30000L, null, 10, exported::add)).isEqualTo(1);
+        // Gefiltert und sortiert wird nach dem Kontostand mit offenen Einträgen
+        assertThat(exported).extracting(CashCard::getId, CashCard::getAmount)
+                .containsExactly(tuple(CARD_ID, INITIAL_AMOUNT + 20000));
+    }
+
+    @Test
+    void transactionsAreReadBySequenceRange() {
+        for (long amount = 1; amount <= 5; amount++) {
+            cashCardService.balance(CARD_ID, OWNER, amount);
+        }
+        List<CashCardTransaction> all = cashCardJdbcRepository.findTransactions(CARD_ID, OWNER, 0, Long.MAX_VALUE, 100);
+        assertThat(all).extracting(CashCardTransaction::amount).containsExactly(1L, 2L, 3L, 4L, 5L);
+
+        long second = all.get(1).sequence();
+        long fourth = all.get(3).sequence();
+        assertThat(cashCardJdbcRepository.findTransactions(CARD_ID, OWNER, second, fourth, 100))
+                .extracting(CashCardTransaction::amount).containsExactly(3L, 4L);
+        assertThat(cashCardJdbcRepository.findTransactions(CARD_ID, OWNER, second, Long.MAX_VALUE, 2))
+                .extracting(CashCardTransaction::amount).containsExactly(3L, 4L);
+        // Fremde Owner sehen den Verlauf nicht
+        assertThat(cashCardJdbcRepository.findTransactions(CARD_ID, "owner2", 0, Long.MAX_VALUE, 100)).isEmpty();
+    }
+
+    @Test
+    void compactionKeepsOpenEntries() {
+        cashCardService.balance(CARD_ID, OWNER, 100);
+        journal.snapshot();
+        cashCardService.balance(CARD_ID, OWNER, 200);
+
+        assertThat(journal.compact()).isEqualTo(1);
+        assertThat(cashCardJdbcRepository.findTransactions(CARD_ID, OWNER, 0, Long.MAX_VALUE, 100))
+                .extracting(CashCardTransaction::amount).containsExactly(200L);
+        assertThat(cashCardService.findById(CARD_ID, OWNER).orElseThrow().getAmount()).isEqualTo(INITIAL_AMOUNT + 300);
+    }
+
+    @Test
+    void foreignCardsAreNotAppended() {
+        assertThat(cashCardService.balance(101L, OWNER, 500)).isEmpty();
+        assertThat(cashCardJdbcRepository.findTransactions(101L, "owner2", 0, Long.MAX_VALUE, 100)).isEmpty();
+    }
+
+    @Test
+    void overflowingTopUpsAreRejected() {
+        jdbcTemplate.update("UPDATE cash_card SET AMOUNT = ? WHERE ID = ?", Long.MAX_VALUE - 100, CARD_ID);
+        cashCardService.balance(CARD_ID, OWNER, 50);
+
+        // Snapshot plus offene Einträge plus Aufladung passen nicht mehr in long
+        assertThatThrownBy(() -> cashCardService.balance(CARD_ID, OWNER, 51))
+                .isInstanceOf(ArithmeticException.class);
+        assertThat(cashCardService.findById(CARD_ID, OWNER).orElseThrow().getAmount()).isEqualTo(Long.MAX_VALUE - 50);
+        assertThat(journal.snapshot()).isEqualTo(1);
+        assertThat(snapshotAmount()).isEqualTo(Long.MAX_VALUE - 50);
+    }
+
+    @Test
+    void snapshotLeavesOverflowingCardsOpenAndFoldsTheRest() {
+        // Wie zwei gleichzeitige Aufladungen, die einzeln in long passen, zusammen aber nicht
+        jdbcTemplate.update("UPDATE cash_card SET AMOUNT = ? WHERE ID = ?", Long.MAX_VALUE - 100, CARD_ID);
+        cashCardService.balance(CARD_ID, OWNER, 60);
+        jdbcTemplate.update("INSERT INTO cash_card_transaction (CARD_ID, OWNER, AMOUNT) VALUES (?, ?, 60)", CARD_ID, OWNER);
+        for (int i = 0; i < 25; i++) {
+            cashCardService.balance(100L, OWNER, 1);
+        }
+
+        // Batches zu 10 Einträgen: Die Einträge von Karte 99 blockieren die übrigen nicht
+        int folded = 0;
+        Set<Long> skippedCards = new HashSet<>();
+        int batch;
+        do {
+            batch = transactionTemplate.execute(status -> cashCardJdbcRepository.snapshotTransactions(10, skippedCards));
+            folded += batch;
+        } while (batch > 0);
+        assertThat(folded).isEqualTo(25);
+        assertThat(skippedCards).containsExactly(CARD_ID);
+        assertThat(journal.snapshot()).isZero();
+        assertThat(snapshotAmount()).isEqualTo(Long.MAX_VALUE - 100);
+        assertThat(cashCardRepository.findByIdAndOwner(100L, OWNER).orElseThrow().getAmount()).isEqualTo(12345 + 25);
+        assertThat(cashCardJdbcRepository.findTransactions(CARD_ID, OWNER, 0, Long.MAX_VALUE, 100)).hasSize(2);
+    }
+
+    @Test
+    void concurrentTopUpsAndSnapshotsLoseNothing() throws Exception {
+        int threads = 8;
+        int topUpsPerThread = 250;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < topUpsPerThread; i++) {
+                        cashCardService.balance(CARD_ID, OWNER, 1);
+                        if (i % 50 == 0) {
+                            journal.snapshot();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(cashCardService.findById(CARD_ID, OWNER).orElseThrow().getAmount())
+                .isEqualTo(INITIAL_AMOUNT + threads * topUpsPerThread);
+        journal.snapshot();
+        assertThat(snapshotAmount()).isEqualTo(INITIAL_AMOUNT + threads * topUpsPerThread);
+        // Die Owner-Summe wurde mit jedem Schreibvorgang angepasst
+        assertThat(summaryVerifier.verify()).isEmpty();
+    }
+
+    @Test
+    void parallelSnapshotsOfTwoInstancesFoldEachEntryOnce() throws Exception {
+        int entries = 200;
+        for (int i = 0; i < entries; i++) {
+            cashCardService.balance(CARD_ID, OWNER, 1);
+        }
+        // Wie zwei Instanzen: am synchronized in BalanceJournal.snapshot vorbei, jede mit eigener Transaktion
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < 2; t++) {
+                futures.add(executor.submit(() -> {
+                    int folded = 0;
+                    int batch;
+                    do {
+                        batch = transactionTemplate.execute(status -> cashCardJdbcRepository.snapshotTransactions(10, new HashSet<>()));
+                        folded += batch;
+                    } while (batch > 0);
+                    return folded;
+                }));
+            }
+            int folded = 0;
+            for (Future<Integer> future : futures) {
+                folded += future.get();
+            }
+            assertThat(folded).isEqualTo(entries);
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(snapshotAmount()).isEqualTo(INITIAL_AMOUNT + entries);
+        assertThat(summaryVerifier.verify()).isEmpty();
+    }
+
+    // ICashCardRepository liest nur cash_card.AMOUNT, also den Snapshot
+    private long snapshotAmount() {
+        return cashCardRepository.findByIdAndOwner(CARD_ID, OWNER).orElseThrow().getAmount();
+    }
+}
@@ -1,5 +1,6 @@
 package example.cashcard;
 
+import com.fasterxml.jackson.databind.exc.InvalidFormatException;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.json.JsonTest;
@@ -10,6 +11,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 @JsonTest // Markiert den Test für das Jackson Framework (wird in Spring-Boot mitgegeben)
 public class CashCardJsonTest {
@@ -23,7 +25,7 @@ public class CashCardJsonTest {
 
     @Test
     void cashCardSerializationTest() throws IOException {
-        CashCard cashCard = new CashCard(99L, 123.45, "owner1");
+        CashCard cashCard = new CashCard(99L, 12345, "owner1");
         assertThat(json.write(cashCard)).isStrictlyEqualToJson("single.json");
         assertThat(json.write(cashCard)).hasJsonPathNumberValue("@.id");
         assertThat(json.write(cashCard)).extractingJsonPathNumberValue("@.id").isEqualTo(99);
@@ -37,16 +39,25 @@ public class CashCardJsonTest {
                 { "id": 99, "amount": 123.45, "owner": "owner1" }
                 """;
         assertThat(json.parse(expected).getObject())
-                .isEqualTo(new CashCard(99L, 123.45, "owner1"));
+                .isEqualTo(new CashCard(99L, 12345, "owner1"));
         assertThat(json.parseObject(expected).getId()).isEqualTo(99);
-        assertThat(json.parseObject(expected).getAmount()).isEqualTo(123.45);
+        // amount wird exakt in Cent umgerechnet
+        assertThat(json.parseObject(expected).getAmount()).isEqualTo(12345);
+    }
+
+    @Test
+    void amountWithMoreThanTwoDecimalPlacesIsRejected() {
+        String expected = """
+                { "id": 99, "amount": 123.456, "owner": "owner1" }
+                """;
+        assertThrows(InvalidFormatException.class, () -> json.parseObject(expected));
     }
 
     @Test
     void cashCardListSerializationTest() throws IOException {
-        List<CashCard> cashCards = Arrays.asList(new CashCard(99L, 123.45, "owner1"),
-                new CashCard(100L, 1.00, "owner1"),
-                new CashCard(101L, 150.00, "owner1"));
+        List<CashCard> cashCards = Arrays.asList(new CashCard(99L, 12345, "owner1"),
+                new CashCard(100L, 100, "owner1"),
+                new CashCard(101L, 15000, "owner1"));
         assertThat(jsonList.write(cashCards)).isStrictlyEqualToJson("list.json");
     }
 }
@@ -0,0 +1,26 @@
+package example.cashcard;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Ohne cashcard.security.metrics.password gibt es keinen Metrics-User und kein Standardpasswort
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureObservability
+class CashCardMetricsDisabledTests {
+
+    @Autowired
+    TestRestTemplate restTemplate;
+
+    @Test
+    void scrapeEndpointIsClosedWithoutConfiguredPassword() {
+        assertThat(restTemplate.withBasicAuth("metrics", "metrics-secret").getForEntity("/actuator/prometheus", String.class)
+                .getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+        assertThat(restTemplate.getForEntity("/actuator/health", String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+}
@@ -0,0 +1,54 @@
+package example.cashcard;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.annotation.DirtiesContext;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "cashcard.security.metrics.password=" + CashCardMetricsTests.METRICS_PASSWORD)
+// Ohne @AutoConfigureObservability sind Metrik-Exporter in Tests abgeschaltet und /actuator/prometheus fehlt
+@AutoConfigureObservability
+@DirtiesContext
+class CashCardMetricsTests {
+
+    static final String METRICS_PASSWORD = "scrape-test-secret";
+
+    @Autowired
+    TestRestTemplate restTemplate;
+
+    @Test
+    void scrapeEndpointIsSecuredSeparately() {
+        assertThat(restTemplate.getForEntity("/actuator/prometheus", String.class).getStatusCode())
+                .isEqualTo(HttpStatus.UNAUTHORIZED);
+        // Karten-User sind am Actuator unbekannt
+        assertThat(restTemplate.withBasicAuth("owner1", "12345").getForEntity("/actuator/prometheus", String.class)
+                .getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+        // und der Metrics-User an /cashcards
+        assertThat(restTemplate.withBasicAuth("metrics", METRICS_PASSWORD).getForEntity("/cashcards/99", String.class)
+                .getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+        assertThat(restTemplate.getForEntity("/actuator/health", String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void handlerRepositoryAndAuthenticationTimingsArePublished() {
+        restTemplate.withBasicAuth("owner1", "12345").getForEntity("/cashcards/99", String.class);
+        restTemplate.withBasicAuth("owner1", "12345").getForEntity("/cashcards/1000", String.class);
+
+        ResponseEntity<String> scrape = restTemplate.withBasicAuth("metrics", METRICS_PASSWORD)
+                .getForEntity("/actuator/prometheus", String.class);
+        assertThat(scrape.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(scrape.getBody())
+                .contains("cashcard_handler_seconds_count{handler=\"findById\",status=\"200\"}")
+                .contains("cashcard_handler_seconds_count{handler=\"findById\",status=\"404\"}")
+                .contains("cashcard_handler_seconds_bucket{handler=\"findById\",status=\"200\",le=")
+                .contains("cashcard_authentication_seconds_count{method=\"basic-cached\",outcome=\"success\"}")
+                .contains("spring_data_repository_invocations_seconds_count{exception=\"None\",method=\"findByIdAndOwner\"");
+    }
+}
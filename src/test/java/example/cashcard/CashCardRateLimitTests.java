@@ -0,0 +1,189 @@
+package example.cashcard;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Kleine Limits, damit wenige Requests reichen. Ein Token alle 10 Sekunden: Innerhalb eines Tests füllt sich kein
+// Bucket nach. Nur GET /cashcards/99 füllt sich schnell, für das Verwerfen leerlaufender Buckets
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "cashcard.rate-limit.capacity=3",
+        "cashcard.rate-limit.refill-per-second=0.1",
+        "cashcard.rate-limit.rules[0].method=POST",
+        "cashcard.rate-limit.rules[0].path=/cashcards/balance/**",
+        "cashcard.rate-limit.rules[0].capacity=1",
+        "cashcard.rate-limit.rules[0].refill-per-second=0.1",
+        "cashcard.rate-limit.rules[1].role=NON_CARD_OWNER",
+        "cashcard.rate-limit.rules[1].capacity=1",
+        "cashcard.rate-limit.rules[1].refill-per-second=0.1",
+        "cashcard.rate-limit.rules[2].method=GET",
+        "cashcard.rate-limit.rules[2].path=/cashcards/99",
+        "cashcard.rate-limit.rules[2].capacity=1",
+        "cashcard.rate-limit.rules[2].refill-per-second=10",
+        "cashcard.rate-limit.idle-timeout=1h",
+        "cashcard.rate-limit.admission.max-concurrent=2"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CashCardRateLimitTests {
+
+    @Autowired
+    TestRestTemplate restTemplate;
+    @Autowired
+    PrincipalRateLimiter rateLimiter;
+    @Autowired
+    MeterRegistry meterRegistry;
+    @Autowired
+    CashCardRateLimitProperties properties;
+
+    @Test
+    void principalIsThrottledWithRetryAfter() {
+        for (int i = 0; i < 3; i++) {
+            assertThat(getAsOwner1("12345").getStatusCode()).isEqualTo(HttpStatus.OK);
+        }
+        ResponseEntity<String> rejected = getAsOwner1("12345");
+        assertThat(rejected.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        // Höchstens 10 Sekunden bis zum nächsten Token, weniger je länger die ersten Requests gedauert haben
+        assertThat(Integer.parseInt(rejected.getHeaders().getFirst(HttpHeaders.RETRY_AFTER))).isBetween(1, 10);
+
+        // Andere User haben ihren eigenen Bucket
+        assertThat(restTemplate.withBasicAuth("hank-owns-no-cards", "54321")
+                .getForEntity("/cashcards", String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(meterRegistry.get(PrincipalRateLimiter.REJECTED_COUNTER).tag("reason", "principal")
+                .counter().count()).isEqualTo(1);
+    }
+
+    // Fehlversuche zählen gegen die Remote-Adresse, ist ihr Bucket leer, wird vor BCrypt abgelehnt
+    @Test
+    void rejectedRequestsNeverReachBcrypt() {
+        for (int i = 0; i < 3; i++) {
+            assertThat(getAsOwner1("wrong").getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+        }
+        for (int i = 0; i < 3; i++) {
+            assertThat(getAsOwner1("wrong").getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        }
+        assertThat(meterRegistry.get(CachingAuthenticationProvider.AUTHENTICATION_TIMER)
+                .tags("method", "basic-bcrypt", "outcome", "failure").timer().count()).isEqualTo(3);
+    }
+
+    @Test
+    void failedLoginsAreChargedToTheAddress() throws Exception {
+        PrincipalRateLimiter limiter = new PrincipalRateLimiter(properties, new SimpleMeterRegistry());
+        RateLimitFilter filter = new RateLimitFilter(limiter);
+        AtomicInteger authentications = new AtomicInteger();
+
+        // Jeder Request mit einem neuen erfundenen Usernamen, die Anmeldung scheitert. Die Remote-Adresse hat 3 Token
+        for (int i = 0; i < 10; i++) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            filter.doFilter(basicRequest("unknown-" + i, "secret", "10.0.0.1"), response,
+                    (request, ignored) -> authentications.incrementAndGet());
+            assertThat(response.getStatus()).isEqualTo(i < 3 ? HttpStatus.OK.value() : HttpStatus.TOO_MANY_REQUESTS.value());
+        }
+        assertThat(authentications).hasValue(3);
+    }
+
+    @Test
+    void wrongPasswordsDoNotLockOutTheUser() throws Exception {
+        PrincipalRateLimiter limiter = new PrincipalRateLimiter(properties, new SimpleMeterRegistry());
+        RateLimitFilter filter = new RateLimitFilter(limiter);
+        PrincipalRateLimitFilter principalFilter = new PrincipalRateLimitFilter(limiter);
+
+        // Falsche Passwörter für owner1 von einer anderen Adresse: nach 3 Fehlversuchen gesperrt ist nur diese Adresse
+        for (int i = 0; i < 5; i++) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            filter.doFilter(basicRequest("owner1", "wrong", "10.0.0.1"), response, new MockFilterChain());
+            assertThat(response.getStatus()).isEqualTo(i < 3 ? HttpStatus.OK.value() : HttpStatus.TOO_MANY_REQUESTS.value());
+        }
+
+        // owner1 selbst hat seinen Bucket (capacity 3) noch ganz
+        for (int i = 0; i < 4; i++) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            filter.doFilter(basicRequest("owner1", "12345", "10.0.0.2"), response, (request, verifiedResponse) -> {
+                SecurityContextHolder.getContext().setAuthentication(UsernamePasswordAuthenticationToken.authenticated(
+                        "owner1", null, AuthorityUtils.createAuthorityList("ROLE_" + UserRole.CARD_OWNER.name())));
+                try {
+                    principalFilter.doFilter(request, verifiedResponse, new MockFilterChain());
+                } finally {
+                    SecurityContextHolder.clearContext();
+                }
+            });
+            assertThat(response.getStatus()).isEqualTo(i < 3 ? HttpStatus.OK.value() : HttpStatus.TOO_MANY_REQUESTS.value());
+        }
+    }
+
+    @Test
+    void rulesApplyPerEndpointAndRole() {
+        ResponseEntity<String> first = restTemplate.withBasicAuth("owner1", "12345")
+                .postForEntity("/cashcards/balance/99", Map.of("amount", 1.00), String.class);
+        assertThat(first.getStatusCode()).isEqualTo(HttpStatus.OK);
+        ResponseEntity<String> second = restTemplate.withBasicAuth("owner1", "12345")
+                .postForEntity("/cashcards/balance/99", Map.of("amount", 1.00), String.class);
+        assertThat(second.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        // Lesen hat einen eigenen Bucket
+        assertThat(getAsOwner1("12345").getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        // NON_CARD_OWNER: capacity 1 für alle Endpunkte
+        assertThat(restTemplate.withBasicAuth("hank-owns-no-cards", "54321")
+                .getForEntity("/cashcards", String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(restTemplate.withBasicAuth("hank-owns-no-cards", "54321")
+                .getForEntity("/cashcards", String.class).getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+    }
+
+    @Test
+    void admissionRejectsWhenTooManyRequestsAreInFlight() {
+        assertThat(rateLimiter.tryAdmit()).isTrue();
+        assertThat(rateLimiter.tryAdmit()).isTrue();
+        try {
+            ResponseEntity<String> rejected = getAsOwner1("12345");
+            assertThat(rejected.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+            assertThat(rejected.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+        } finally {
+            rateLimiter.release();
+            rateLimiter.release();
+        }
+        assertThat(getAsOwner1("12345").getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void idlePrincipalsAreEvicted() throws InterruptedException {
+        restTemplate.withBasicAuth("owner1", "12345").getForEntity("/cashcards/99", String.class);
+        restTemplate.getForEntity("/cashcards/99", String.class);
+        assertThat(meterRegistry.get("cashcard.ratelimit.principals").gauge().value()).isEqualTo(2);
+
+        // Nach einem Request ist der Bucket nach 100 ms wieder voll
+        Thread.sleep(300);
+        rateLimiter.evictIdle(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(meterRegistry.get("cashcard.ratelimit.principals").gauge().value()).isZero();
+    }
+
+    private static MockHttpServletRequest basicRequest(String username, String password, String remoteAddress) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/cashcards");
+        request.setRemoteAddr(remoteAddress);
+        request.addHeader(HttpHeaders.AUTHORIZATION, "Basic " + Base64.getEncoder()
+                .encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8)));
+        return request;
+    }
+
+    private ResponseEntity<String> getAsOwner1(String password) {
+        return restTemplate.withBasicAuth("owner1", password).getForEntity("/cashcards", String.class);
+    }
+}
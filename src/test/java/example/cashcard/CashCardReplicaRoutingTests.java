@@ -0,0 +1,121 @@
+package example.cashcard;
+
+import com.jayway.jsonpath.JsonPath;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.h2.Driver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Zwei eigene H2-Datenbanken stehen für die Replikate. Sie werden nicht repliziert, sondern vor jedem Test mit
+// eigenen Beträgen für Karte 99 befüllt. So zeigt der Betrag, von welchem Knoten gelesen wurde.
+// IFEXISTS=TRUE: Nach SHUTDOWN ist das Replikat nicht mehr erreichbar, statt leer neu zu entstehen
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "cashcard.cache.enabled=false",
+        "cashcard.database.replicas.nodes[0].url=jdbc:h2:mem:cashcard-replica-0;IFEXISTS=TRUE",
+        "cashcard.database.replicas.nodes[0].username=sa",
+        "cashcard.database.replicas.nodes[1].url=jdbc:h2:mem:cashcard-replica-1;IFEXISTS=TRUE",
+        "cashcard.database.replicas.nodes[1].username=sa",
+        "cashcard.database.replicas.stickiness=500ms",
+        "cashcard.database.replicas.health-check-interval=1h"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CashCardReplicaRoutingTests {
+
+    private static final Map<Integer, Double> REPLICA_AMOUNTS = Map.of(0, 1.00, 1, 2.00);
+    private static final double PRIMARY_AMOUNT = 223.45;
+
+    @Autowired
+    TestRestTemplate restTemplate;
+    @Autowired
+    ReadReplicaRouter router;
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void createReplicas() {
+        REPLICA_AMOUNTS.forEach(CashCardReplicaRoutingTests::createReplica);
+    }
+
+    @Test
+    void readsAreSpreadOverTheReplicas() {
+        Set<Double> amounts = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            amounts.add(amountOfCard99());
+        }
+        assertThat(amounts).containsExactlyInAnyOrder(1.00, 2.00);
+
+        ResponseEntity<String> page = restTemplate.withBasicAuth("owner1", "12345").getForEntity("/cashcards", String.class);
+        assertThat(JsonPath.parse(page.getBody()).read("$..id", Long[].class)).containsExactly(99L);
+
+        ResponseEntity<String> export = restTemplate.withBasicAuth("owner1", "12345")
+                .getForEntity("/cashcards/export", String.class);
+        assertThat(export.getBody()).contains("\"id\":99").doesNotContain("\"id\":100");
+    }
+
+    @Test
+    void writesGoToThePrimaryAndTheWriterReadsItsOwnWrites() throws InterruptedException {
+        ResponseEntity<String> balance = restTemplate.withBasicAuth("owner1", "12345")
+                .postForEntity("/cashcards/balance/99", Map.of("amount", 1.00), String.class);
+        assertThat(balance.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(JsonPath.parse(balance.getBody()).read("$.amount", Double.class)).isEqualTo(PRIMARY_AMOUNT + 1);
+
+        // Innerhalb des Zeitfensters liest der User von der primären DataSource
+        assertThat(amountOfCard99()).isEqualTo(PRIMARY_AMOUNT + 1);
+        assertThat(replica(0).queryForObject("SELECT AMOUNT FROM cash_card WHERE ID = 99", Long.class)).isEqualTo(100);
+
+        Thread.sleep(600);
+        assertThat(amountOfCard99()).isIn(1.00, 2.00);
+    }
+
+    @Test
+    void unhealthyReplicasAreSkippedAndThePrimaryIsTheFallback() {
+        replica(0).execute("SHUTDOWN");
+        for (int i = 0; i < 4; i++) {
+            assertThat(amountOfCard99()).isEqualTo(2.00);
+        }
+
+        replica(1).execute("SHUTDOWN");
+        assertThat(amountOfCard99()).isEqualTo(PRIMARY_AMOUNT);
+        assertThat(meterRegistry.get(ReadReplicaRouter.FALLBACK_COUNTER).counter().count()).isEqualTo(1);
+
+        // Die Prüfung nimmt ein wieder erreichbares Replikat auf
+        createReplica(0, REPLICA_AMOUNTS.get(0));
+        router.checkHealth();
+        assertThat(amountOfCard99()).isEqualTo(1.00);
+    }
+
+    private double amountOfCard99() {
+        ResponseEntity<String> response = restTemplate.withBasicAuth("owner1", "12345")
+                .getForEntity("/cashcards/99", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        return JsonPath.parse(response.getBody()).read("$.amount", Double.class);
+    }
+
+    private static void createReplica(int index, double amount) {
+        JdbcTemplate replica = replica(index);
+        replica.execute("DROP ALL OBJECTS");
+        new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(replica.getDataSource());
+        replica.update("INSERT INTO cash_card (ID, AMOUNT, OWNER) VALUES (99, ?, 'owner1')", Math.round(amount * 100));
+    }
+
+    // Ohne IFEXISTS: legt das Replikat an, DB_CLOSE_DELAY=-1 hält es bis SHUTDOWN offen
+    private static JdbcTemplate replica(int index) {
+        return new JdbcTemplate(new SimpleDriverDataSource(new Driver(),
+                "jdbc:h2:mem:cashcard-replica-" + index + ";DB_CLOSE_DELAY=-1", "sa", ""));
+    }
+}
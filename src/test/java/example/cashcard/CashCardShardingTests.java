@@ -0,0 +1,218 @@
+package example.cashcard;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Drei Shards: die Test-Datenbank mit data.sql (Shard 0) und zwei leere H2-Datenbanken.
+// owner1 und owner2 liegen damit zu Beginn auf Shard 0, neue Owner auf ihrem Ring-Shard
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "cashcard.cache.enabled=false",
+        "cashcard.summary.verify-interval=1h",
+        "cashcard.database.shards.nodes[0].url=jdbc:h2:mem:shard-${random.uuid};DB_CLOSE_DELAY=-1",
+        "cashcard.database.shards.nodes[0].username=sa",
+        "cashcard.database.shards.nodes[1].url=jdbc:h2:mem:shard-${random.uuid};DB_CLOSE_DELAY=-1",
+        "cashcard.database.shards.nodes[1].username=sa"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CashCardShardingTests {
+
+    @Autowired
+    CashCardService cashCardService;
+    @Autowired
+    ICashCardRepository cashCardRepository;
+    @Autowired
+    CashCardJdbcRepository cashCardJdbcRepository;
+    @Autowired
+    CashCardSummaryVerifier verifier;
+    @Autowired
+    OwnerShardRouter router;
+    @Autowired
+    OwnerShardRebalancer rebalancer;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    void newOwnersLandOnTheirRingShardWithGloballyUniqueIds() {
+        Set<Integer> usedShards = new HashSet<>();
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < 30; i++) {
+            String owner = "owner-" + i;
+            CashCard created = cashCardService.create(new CashCard(null, 100, null), owner);
+            int shard = router.ringShard(owner);
+            assertThat(router.shardOf(owner)).isEqualTo(shard);
+            assertThat(created.getId()).isBetween(Math.max(1, shard * OwnerShardRouter.ID_RANGE),
+                    (shard + 1) * OwnerShardRouter.ID_RANGE - 1);
+            assertThat(cardsOn(shard, owner)).isEqualTo(1);
+            assertThat(ids.add(created.getId())).isTrue();
+            usedShards.add(shard);
+        }
+        assertThat(usedShards).containsExactlyInAnyOrder(0, 1, 2);
+        // Bestehende Owner bleiben, wo ihre Daten liegen
+        assertThat(router.shardOf("owner1")).isZero();
+        assertThat(verifier.verify()).isEmpty();
+    }
+
+    @Test
+    void repositoryCallsFollowTheOwner() {
+        String owner = ownerWithRingShard(2);
+        CashCard created = cashCardService.create(new CashCard(null, 1000, null), owner);
+        cashCardService.create(new CashCard(null, 500, null), owner);
+
+        assertThat(cashCardService.balance(created.getId(), owner, 250))
+                .hasValueSatisfying(card -> assertThat(card.getAmount()).isEqualTo(1250));
+        assertThat(cashCardService.findById(created.getId(), owner)).isPresent();
+        assertThat(cashCardRepository.findByOwner(owner, PageRequest.of(0, 10))).hasSize(2);
+        assertThat(cashCardRepository.countByOwner(owner)).isEqualTo(2);
+        assertThat(cashCardJdbcRepository.findSummary(owner)).contains(new OwnerSummary(owner, 1750, 2));
+        // Fremde Owner sehen die Karte nicht, auch nicht von ihrem eigenen Shard aus
+        assertThat(cashCardService.findById(created.getId(), "owner1")).isEmpty();
+        assertThat(cardsOn(0, owner) + cardsOn(1, owner)).isZero();
+    }
+
+    @Test
+    void ownerMovesOnlineWhileTopUpsContinue() throws Exception {
+        int threads = 4;
+        int topUpsPerThread = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long id = t % 2 == 0 ? 99L : 100L;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < topUpsPerThread; i++) {
+                        assertThat(cashCardService.balance(id, "owner1", 1)).isPresent();
+                    }
+                    return null;
+                }));
+            }
+            assertThat(rebalancer.move("owner1", 1)).isEqualTo(2);
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(router.shardOf("owner1")).isEqualTo(1);
+        assertThat(cardsOn(0, "owner1")).isZero();
+        assertThat(cardsOn(1, "owner1")).isEqualTo(2);
+        long expected = 22345 + 12345 + threads * topUpsPerThread;
+        assertThat(cashCardJdbcRepository.findSummary("owner1")).contains(new OwnerSummary("owner1", expected, 2));
+        assertThat(cashCardService.findById(99L, "owner1")).isPresent();
+        assertThat(verifier.verify()).isEmpty();
+        assertThat(meterRegistry.get(OwnerShardRebalancer.MOVE_COUNTER).counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void rebalanceMovesExistingOwnersToTheirRingShard() {
+        long misplaced = Set.of("owner1", "owner2").stream().filter(owner -> router.ringShard(owner) != 0).count();
+
+        assertThat(rebalancer.rebalance()).isEqualTo(misplaced);
+        for (String owner : List.of("owner1", "owner2")) {
+            assertThat(router.shardOf(owner)).isEqualTo(router.ringShard(owner));
+            assertThat(cardsOn(router.ringShard(owner), owner)).isPositive();
+        }
+        assertThat(rebalancer.rebalance()).isZero();
+        assertThat(verifier.verify()).isEmpty();
+    }
+
+    @Test
+    void idsOfMovedCardsAreNotReissuedAfterRestart() {
+        String moved = ownerWithRingShard(1, 0);
+        long movedId = cashCardService.create(new CashCard(null, 100, null), moved).getId();
+        rebalancer.move(moved, 0);
+
+        // Neustart: Shard 1 hat keine Karte aus seinem Bereich mehr
+        router.restartIds();
+        long nextId = cashCardService.create(new CashCard(null, 100, null), ownerWithRingShard(1, 1)).getId();
+        assertThat(nextId).isGreaterThan(movedId).isLessThan(2 * OwnerShardRouter.ID_RANGE);
+    }
+
+    @Test
+    void interruptedMovesAreFinishedOnRestart() {
+        // owner1 ist umgehängt (COMMITTED), der alte Shard 0 aber noch nicht geräumt
+        rebalancer.move("owner1", 1);
+        router.onShard(0, () -> {
+            jdbcTemplate.update("INSERT INTO cash_card (ID, AMOUNT, OWNER, VERSION) VALUES (99, 1, 'owner1', 0)");
+            jdbcTemplate.update("INSERT INTO cash_card_owner_summary (OWNER, TOTAL_AMOUNT, CARD_COUNT) VALUES ('owner1', 1, 1)");
+            return null;
+        });
+        router.onShard(1, () -> jdbcTemplate.update(
+                "INSERT INTO cash_card_owner_move (OWNER, SOURCE_SHARD, COMMITTED) VALUES ('owner1', 0, TRUE)"));
+        // owner2 ist nur auf Shard 2 kopiert, das Umhängen fehlt
+        router.onShard(2, () -> {
+            jdbcTemplate.update("INSERT INTO cash_card (ID, AMOUNT, OWNER, VERSION) VALUES (101, 1, 'owner2', 0)");
+            jdbcTemplate.update("INSERT INTO cash_card_owner_summary (OWNER, TOTAL_AMOUNT, CARD_COUNT) VALUES ('owner2', 1, 1)");
+            jdbcTemplate.update("INSERT INTO cash_card_owner_move (OWNER, SOURCE_SHARD) VALUES ('owner2', 0)");
+            return null;
+        });
+
+        router.restoreLocations();
+
+        assertThat(router.shardOf("owner1")).isEqualTo(1);
+        assertThat(cardsOn(0, "owner1")).isZero();
+        assertThat(cashCardService.findById(99L, "owner1")).hasValueSatisfying(card ->
+                assertThat(card.getAmount()).isEqualTo(22345));
+        assertThat(router.shardOf("owner2")).isZero();
+        assertThat(cardsOn(2, "owner2")).isZero();
+        assertThat(cashCardService.findById(101L, "owner2")).hasValueSatisfying(card ->
+                assertThat(card.getAmount()).isEqualTo(32345));
+        for (int shard = 0; shard < router.shardCount(); shard++) {
+            assertThat(router.onShard(shard, () -> jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM cash_card_owner_move", Long.class))).isZero();
+        }
+        assertThat(verifier.verify()).isEmpty();
+    }
+
+    @Test
+    void transactionsSpanningTwoShardsAreRejected() {
+        String first = ownerWithRingShard(1);
+        String second = ownerWithRingShard(2);
+
+        assertThatThrownBy(() -> transactionTemplate.executeWithoutResult(status -> {
+            cashCardRepository.save(new CashCard(null, 100, first));
+            cashCardRepository.save(new CashCard(null, 100, second));
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(cardsOn(1, first)).isZero();
+        assertThat(OwnerShardRouter.currentShard()).isNull();
+    }
+
+    private String ownerWithRingShard(int shard) {
+        return ownerWithRingShard(shard, 0);
+    }
+
+    // Der (skip + 1)-te Owner mit diesem Ring-Shard
+    private String ownerWithRingShard(int shard, int skip) {
+        for (int i = 0; ; i++) {
+            String owner = "shard-owner-" + i;
+            if (router.ringShard(owner) == shard && skip-- == 0) {
+                return owner;
+            }
+        }
+    }
+
+    private long cardsOn(int shard, String owner) {
+        return router.onShard(shard, () -> jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM cash_card WHERE OWNER = ?", Long.class, owner));
+    }
+}
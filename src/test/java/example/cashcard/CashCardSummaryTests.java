@@ -0,0 +1,98 @@
+package example.cashcard;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Die geplante Prüfung läuft nur beim Start, danach rufen die Tests verify() selbst auf
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = "cashcard.summary.verify-interval=1h")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CashCardSummaryTests {
+
+    private static final String OWNER = "owner1";
+    private static final long OWNER_TOTAL = 22345 + 12345;
+
+    @Autowired
+    CashCardService cashCardService;
+    @Autowired
+    CashCardBatchService cashCardBatchService;
+    @Autowired
+    CashCardJdbcRepository cashCardJdbcRepository;
+    @Autowired
+    CashCardSummaryVerifier verifier;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Test
+    void summaryFollowsCreateAndBalance() {
+        cashCardService.create(new CashCard(null, 1000, null), OWNER);
+        cashCardService.balance(99L, OWNER, 500);
+        cashCardBatchService.createAll(OWNER, new ArrayList<>(List.of(new CashCard(null, 200, null))));
+        cashCardBatchService.balanceAll(OWNER, List.of(new BalanceOperation(100L, 300L),
+                new BalanceOperation(101L, 5000L)));
+        // Fremde Karte: weder Betrag noch Summe ändern sich
+        cashCardService.balance(101L, OWNER, 700);
+
+        assertThat(cashCardJdbcRepository.findSummary(OWNER)).contains(
+                new OwnerSummary(OWNER, OWNER_TOTAL + 1000 + 500 + 200 + 300, 4));
+        assertThat(verifier.verify()).isEmpty();
+    }
+
+    @Test
+    void firstCardCreatesTheSummary() {
+        assertThat(cashCardJdbcRepository.findSummary("new-owner")).isEmpty();
+        cashCardService.create(new CashCard(null, 1000, null), "new-owner");
+        assertThat(cashCardJdbcRepository.findSummary("new-owner")).contains(new OwnerSummary("new-owner", 1000, 1));
+    }
+
+    @Test
+    void concurrentBalancesKeepTheSummaryExact() throws Exception {
+        int threads = 8;
+        int topUpsPerThread = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long id = t % 2 == 0 ? 99L : 100L;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < topUpsPerThread; i++) {
+                        cashCardService.balance(id, OWNER, 1);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(cashCardJdbcRepository.findSummary(OWNER).orElseThrow().totalAmount())
+                .isEqualTo(OWNER_TOTAL + threads * topUpsPerThread);
+        assertThat(verifier.verify()).isEmpty();
+    }
+
+    @Test
+    void driftIsReportedAndRepaired() {
+        // Änderungen an der Anwendung vorbei
+        jdbcTemplate.update("UPDATE cash_card SET AMOUNT = AMOUNT + 100 WHERE ID = 99");
+        jdbcTemplate.update("INSERT INTO cash_card (AMOUNT, OWNER) VALUES (400, 'imported-owner')");
+
+        assertThat(verifier.verify()).containsExactlyInAnyOrder(
+                new CashCardSummaryVerifier.Drift(OWNER, OWNER_TOTAL + 100, 2, OWNER_TOTAL, 2),
+                new CashCardSummaryVerifier.Drift("imported-owner", 400, 1, 0, 0));
+        assertThat(cashCardJdbcRepository.findSummary(OWNER)).contains(new OwnerSummary(OWNER, OWNER_TOTAL + 100, 2));
+        assertThat(cashCardJdbcRepository.findSummary("imported-owner")).contains(new OwnerSummary("imported-owner", 400, 1));
+        assertThat(verifier.verify()).isEmpty();
+    }
+}
@@ -0,0 +1,183 @@
+package example.cashcard;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+// Der Flush-Intervall ist so groß, dass nur die Tests selbst schreiben
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "cashcard.balance.mode=WRITE_BEHIND",
+        "cashcard.balance.write-behind.flush-interval=1h",
+        "cashcard.balance.write-behind.flush-threshold=1000000",
+        "cashcard.balance.write-behind.max-cards=2"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CashCardWriteBehindTests {
+
+    private static final long CARD_ID = 99L;
+    private static final String OWNER = "owner1";
+    private static final long INITIAL_AMOUNT = 22345;
+
+    @Autowired
+    CashCardService cashCardService;
+    @Autowired
+    ICashCardRepository cashCardRepository;
+    @Autowired
+    WriteBehindBalanceAccumulator accumulator;
+    @Autowired
+    CashCardSummaryVerifier summaryVerifier;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Test
+    void pendingTopUpsAreVisibleBeforeTheyAreWritten() {
+        assertThat(cashCardService.balance(CARD_ID, OWNER, 1000).orElseThrow().getAmount())
+                .isEqualTo(INITIAL_AMOUNT + 1000);
+        assertThat(storedAmount()).isEqualTo(INITIAL_AMOUNT);
+        assertThat(cashCardService.findById(CARD_ID, OWNER).orElseThrow().getAmount()).isEqualTo(INITIAL_AMOUNT + 1000);
+
+        accumulator.flushAndWait(CARD_ID);
+        assertThat(storedAmount()).isEqualTo(INITIAL_AMOUNT + 1000);
+        // Nach dem Flush darf der Betrag nicht doppelt gezählt werden
+        assertThat(cashCardService.findById(CARD_ID, OWNER).orElseThrow().getAmount()).isEqualTo(INITIAL_AMOUNT + 1000);
+    }
+
+    @Test
+    void listAndExportIncludePendingTopUps() {
+        cashCardService.balance(CARD_ID, OWNER, 20000);
+
+        List<CashCard> stored = cashCardRepository.findByOwner(OWNER, PageRequest.of(0, 10, Sort.by("id")));
+        assertThat(cashCardService.withCurrentAmounts(stored, OWNER))
+                .extracting(CashCard::getId, CashCard::getAmount)
+                .containsExactly(tuple(CARD_ID, INITIAL_AMOUNT + 20000), tuple(100L, 12345L));
+
+        List<CashCard> exported = new ArrayList<>();
+        // Gefiltert wird nach dem Kontostand mit offenen Aufladungen, nicht nach cash_card.AMOUNT
+        assertThat(cashCardService.export(OWNER, 30000L, null, 10, exported::add)).isEqualTo(1);
+        assertThat(exported).extracting(CashCard::getId, CashCard::getAmount)
+                .containsExactly(tuple(CARD_ID, INITIAL_AMOUNT + 20000));
+
+        // Nach dem Flush wird nichts doppelt gezählt
+        accumulator.flushAndWait(CARD_ID);
+        exported.clear();
+        cashCardService.export(OWNER, null, null, 10, exported::add);
+        assertThat(exported).extracting(CashCard::getId, CashCard::getAmount)
+                .containsExactly(tuple(100L, 12345L), tuple(CARD_ID, INITIAL_AMOUNT + 20000));
+    }
+
+    @Test
+    void syncTopUpIsWrittenBeforeItIsAcknowledged() {
+        cashCardService.balance(CARD_ID, OWNER, 500);
+        assertThat(cashCardService.awaitWritten(CARD_ID)).isTrue();
+        assertThat(storedAmount()).isEqualTo(INITIAL_AMOUNT + 500);
+    }
+
+    @Test
+    void failedSyncFlushKeepsTheTopUpPending() {
+        cashCardService.balance(CARD_ID, OWNER, 500);
+        // Das UPDATE der Karte läuft über und scheitert
+        jdbcTemplate.update("UPDATE cash_card SET AMOUNT = ? WHERE ID = ?", Long.MAX_VALUE - 100, CARD_ID);
+        assertThat(cashCardService.awaitWritten(CARD_ID)).isFalse();
+
+        // Die Aufladung bleibt angenommen und wird mit dem nächsten Flush genau einmal geschrieben
+        jdbcTemplate.update("UPDATE cash_card SET AMOUNT = ? WHERE ID = ?", INITIAL_AMOUNT, CARD_ID);
+        assertThat(accumulator.flushAndWait(CARD_ID)).isTrue();
+        assertThat(storedAmount()).isEqualTo(INITIAL_AMOUNT + 500);
+        assertThat(accumulator.flushAndWait(CARD_ID)).isTrue();
+        assertThat(storedAmount()).isEqualTo(INITIAL_AMOUNT + 500);
+    }
+
+    @Test
+    void overflowingTopUpsAreRejected() {
+        jdbcTemplate.update("UPDATE cash_card SET AMOUNT = ? WHERE ID = ?", Long.MAX_VALUE - 100, CARD_ID);
+        cashCardService.balance(CARD_ID, OWNER, 50);
+
+        // Gespeicherter Betrag plus offene Aufladungen plus Aufladung passen nicht mehr in long
+        assertThatThrownBy(() -> cashCardService.balance(CARD_ID, OWNER, 51)).isInstanceOf(ArithmeticException.class);
+        assertThat(cashCardService.findById(CARD_ID, OWNER).orElseThrow().getAmount()).isEqualTo(Long.MAX_VALUE - 50);
+        assertThat(accumulator.flushAndWait(CARD_ID)).isTrue();
+        assertThat(storedAmount()).isEqualTo(Long.MAX_VALUE - 50);
+    }
+
+    @Test
+    void foreignCardsAreRejectedBeforeAccumulating() {
+        assertThat(cashCardService.balance(101L, OWNER, 500)).isEmpty();
+        accumulator.flushAndWait(CARD_ID);
+        assertThat(cashCardRepository.findById(101L).orElseThrow().getAmount()).isEqualTo(32345);
+    }
+
+    @Test
+    void concurrentTopUpsAreCoalescedWithoutLoss() throws Exception {
+        int threads = 8;
+        int topUpsPerThread = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < topUpsPerThread; i++) {
+                        cashCardService.balance(CARD_ID, OWNER, 1);
+                        // Flushes mitten in den Aufladungen
+                        if (i % 100 == 0) {
+                            accumulator.flushAndWait(CARD_ID);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        accumulator.flushAndWait(CARD_ID);
+        assertThat(storedAmount()).isEqualTo(INITIAL_AMOUNT + threads * topUpsPerThread);
+        // Die Owner-Summe wurde mit jedem Schreibvorgang angepasst
+        assertThat(summaryVerifier.verify()).isEmpty();
+    }
+
+    @Test
+    void shutdownDrainsPendingTopUps() {
+        cashCardService.balance(CARD_ID, OWNER, 700);
+        accumulator.stop();
+        assertThat(storedAmount()).isEqualTo(INITIAL_AMOUNT + 700);
+        // Nach dem Stop wird direkt geschrieben
+        cashCardService.balance(CARD_ID, OWNER, 300);
+        assertThat(storedAmount()).isEqualTo(INITIAL_AMOUNT + 1000);
+    }
+
+    @Test
+    void flushedCardsFreeTheirSlot() {
+        // Mehr Karten als max-cards, nacheinander aufgeladen: jede Aufladung muss über den Accumulator laufen
+        for (int i = 0; i < 5; i++) {
+            CashCard cashCard = cashCardService.create(new CashCard(null, 1000, null), OWNER);
+            cashCardService.balance(cashCard.getId(), OWNER, 100);
+            assertThat(storedAmount(cashCard.getId())).isEqualTo(1000);
+            accumulator.flushAndWait(CARD_ID);
+            assertThat(storedAmount(cashCard.getId())).isEqualTo(1100);
+        }
+        assertThat(cashCardService.findById(CARD_ID, OWNER).orElseThrow().getAmount()).isEqualTo(INITIAL_AMOUNT);
+    }
+
+    private long storedAmount() {
+        return storedAmount(CARD_ID);
+    }
+
+    private long storedAmount(long id) {
+        return cashCardRepository.findByIdAndOwner(id, OWNER).orElseThrow().getAmount();
+    }
+}
@@ -1,5 +1,7 @@
 /* Dieses SQL wird nur für Test ausgeführt.  */
 
-INSERT INTO CASH_CARD(ID, AMOUNT, OWNER) VALUES (99,  223.45, 'owner1') ;
-INSERT INTO CASH_CARD(ID, AMOUNT, OWNER) VALUES (100, 123.45, 'owner1') ;
-INSERT INTO CASH_CARD(ID, AMOUNT, OWNER) VALUES (101, 323.45, 'owner2') ;
\ No newline at end of file
+INSERT INTO CASH_CARD(ID, AMOUNT, OWNER) VALUES (99,  22345, 'owner1') ;
+INSERT INTO CASH_CARD(ID, AMOUNT, OWNER) VALUES (100, 12345, 'owner1') ;
+INSERT INTO CASH_CARD(ID, AMOUNT, OWNER) VALUES (101, 32345, 'owner2') ;
+INSERT INTO CASH_CARD_OWNER_SUMMARY(OWNER, TOTAL_AMOUNT, CARD_COUNT) VALUES ('owner1', 34690, 2) ;
+INSERT INTO CASH_CARD_OWNER_SUMMARY(OWNER, TOTAL_AMOUNT, CARD_COUNT) VALUES ('owner2', 32345, 1) ;